@@ -0,0 +1,117 @@
+package com.file.service.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic input for the benchmarks: ASCII lines of a given shape, written to files with a fixed seed so every
+ * run of a benchmark sorts the same data.
+ */
+public final class DataGenerator {
+
+	/**
+	 * Shape of the generated lines.
+	 */
+	public enum Shape {
+		/** Random lowercase words of 8 to 24 letters. */
+		RANDOM,
+		/** Lines already in ascending order, across files as well. */
+		PRESORTED,
+		/** Lines drawn from 1000 distinct keys, so almost every line is a duplicate. */
+		DUPLICATES,
+		/** URLs sharing a 35 byte prefix, so comparisons have to look past it. */
+		COMMON_PREFIX
+	}
+
+	private static final int DISTINCT_KEYS = 1000;
+	private static final String URL_PREFIX = "https://example.com/catalog/items/";
+
+	private DataGenerator() {
+	}
+
+	/**
+	 * Write records lines of the shape, spread evenly over the given number of files in the directory.
+	 * @param directory - Existing directory receiving files named 0.txt, 1.txt, ...
+	 * @param shape - Shape of the lines
+	 * @param records - Total number of lines
+	 * @param files - Number of files
+	 * @param seed - Seed of the random lines
+	 * @return Total size of the files in bytes
+	 * @throws IOException
+	 */
+	public static long writeFiles(Path directory, Shape shape, int records, int files, long seed) throws IOException {
+		Random random = new Random(seed);
+		long bytes = 0L;
+		int written = 0;
+		for (int file = 0; file < files; file++) {
+			int count = records / files + (file < records % files ? 1 : 0);
+			Path path = directory.resolve(file + ".txt");
+			try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+				for (int i = 0; i < count; i++) {
+					writer.write(line(shape, random, written++));
+					writer.newLine();
+				}
+			}
+			bytes += Files.size(path);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Write records lines of the shape as k sorted files, the input of a k-way merge.
+	 * @param directory - Existing directory receiving files named run-0.txt, run-1.txt, ...
+	 * @param shape - Shape of the lines
+	 * @param records - Total number of lines
+	 * @param k - Number of sorted files
+	 * @param seed - Seed of the random lines
+	 * @return Paths of the sorted files
+	 * @throws IOException
+	 */
+	public static List<Path> writeSortedRuns(Path directory, Shape shape, int records, int k, long seed) throws IOException {
+		Random random = new Random(seed);
+		List<List<String>> runs = new ArrayList<>();
+		for (int run = 0; run < k; run++) {
+			runs.add(new ArrayList<>(records / k + 1));
+		}
+		for (int i = 0; i < records; i++) {
+			runs.get(random.nextInt(k)).add(line(shape, random, i));
+		}
+		List<Path> paths = new ArrayList<>();
+		for (int run = 0; run < k; run++) {
+			List<String> lines = runs.get(run);
+			Collections.sort(lines);
+			Path path = directory.resolve("run-" + run + ".txt");
+			Files.write(path, lines, StandardCharsets.UTF_8);
+			paths.add(path);
+		}
+		return paths;
+	}
+
+	private static String line(Shape shape, Random random, int index) {
+		switch (shape) {
+		case PRESORTED:
+			return String.format("%010d-%s", index, word(random, 8));
+		case DUPLICATES:
+			return "key-" + random.nextInt(DISTINCT_KEYS);
+		case COMMON_PREFIX:
+			return URL_PREFIX + (1_000_000_000L + random.nextInt(1_000_000_000));
+		default:
+			return word(random, 8 + random.nextInt(17));
+		}
+	}
+
+	private static String word(Random random, int length) {
+		char[] letters = new char[length];
+		for (int i = 0; i < length; i++) {
+			letters[i] = (char) ('a' + random.nextInt(26));
+		}
+		return new String(letters);
+	}
+}
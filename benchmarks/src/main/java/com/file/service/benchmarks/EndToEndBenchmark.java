@@ -0,0 +1,83 @@
+package com.file.service.benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.file.service.FileMergeSort;
+
+/**
+ * Whole job: mergeAndSortFiles from an input directory to output.dat. A few input files are each sorted on
+ * their own; more than 1024 files are read one after another and cut into blocks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g"})
+public class EndToEndBenchmark {
+
+	@Param({"RANDOM", "PRESORTED", "DUPLICATES", "COMMON_PREFIX"})
+	public DataGenerator.Shape shape;
+
+	@Param({"1000000"})
+	public int records;
+
+	@Param({"8", "2000"})
+	public int files;
+
+	@Param({"false", "true"})
+	public boolean removeDuplicates;
+
+	@Param({"false", "true"})
+	public boolean byteMode;
+
+	private Path data;
+	private long inputBytes;
+	private Path work;
+
+	@Setup(Level.Trial)
+	public void generate() throws Exception {
+		data = WorkDirectory.create("end-to-end-data");
+		inputBytes = DataGenerator.writeFiles(data, shape, records, files, 42L);
+	}
+
+	@Setup(Level.Invocation)
+	public void createWorkDirectory() throws Exception {
+		work = WorkDirectory.create("end-to-end");
+		Files.createDirectory(work.resolve("temp"));
+	}
+
+	@Benchmark
+	public void mergeAndSortFiles(Throughput throughput) throws Exception {
+		FileMergeSort merge = new FileMergeSort();
+		merge.setByteMode(byteMode);
+		merge.mergeAndSortFiles(data.toString(), work.toString(), work.resolve("temp").toString(), removeDuplicates);
+		throughput.add(inputBytes, records);
+	}
+
+	@TearDown(Level.Invocation)
+	public void deleteWorkDirectory() throws Exception {
+		WorkDirectory.delete(work);
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteData() throws Exception {
+		WorkDirectory.delete(data);
+	}
+}
@@ -0,0 +1,88 @@
+package com.file.service.benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.file.service.FileMergeSort;
+
+/**
+ * K-way merge: mergeSortedFiles merging k sorted files in a single pass, keeping or removing duplicates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g"})
+public class MergeBenchmark {
+
+	@Param({"RANDOM", "PRESORTED", "DUPLICATES", "COMMON_PREFIX"})
+	public DataGenerator.Shape shape;
+
+	@Param({"1000000"})
+	public int records;
+
+	@Param({"2", "16", "128"})
+	public int k;
+
+	@Param({"false", "true"})
+	public boolean removeDuplicates;
+
+	@Param({"false", "true"})
+	public boolean byteMode;
+
+	private Path data;
+	private List<Path> runs;
+	private long inputBytes;
+	private Path work;
+
+	@Setup(Level.Trial)
+	public void generate() throws Exception {
+		data = WorkDirectory.create("merge-data");
+		runs = DataGenerator.writeSortedRuns(data, shape, records, k, 42L);
+		inputBytes = 0L;
+		for (Path run : runs) {
+			inputBytes += Files.size(run);
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void createWorkDirectory() throws Exception {
+		work = WorkDirectory.create("merge");
+	}
+
+	@Benchmark
+	public void mergeSortedFiles(Throughput throughput) throws Exception {
+		FileMergeSort merge = new FileMergeSort();
+		merge.setByteMode(byteMode);
+		merge.setMaxFanIn(k);
+		merge.mergeSortedFiles(runs, work.resolve("merge").toString(), work.toString(), removeDuplicates);
+		throughput.add(inputBytes, records);
+	}
+
+	@TearDown(Level.Invocation)
+	public void deleteWorkDirectory() throws Exception {
+		WorkDirectory.delete(work);
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteData() throws Exception {
+		WorkDirectory.delete(data);
+	}
+}
@@ -0,0 +1,76 @@
+package com.file.service.benchmarks;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.file.service.FileMergeSort;
+
+/**
+ * Run generation: splitAndSort cutting one input file into sorted temporary files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx1g"})
+public class RunGenerationBenchmark {
+
+	@Param({"RANDOM", "PRESORTED", "DUPLICATES", "COMMON_PREFIX"})
+	public DataGenerator.Shape shape;
+
+	@Param({"100000", "1000000"})
+	public int records;
+
+	@Param({"false", "true"})
+	public boolean byteMode;
+
+	private Path data;
+	private Path input;
+	private long inputBytes;
+	private Path work;
+
+	@Setup(Level.Trial)
+	public void generate() throws Exception {
+		data = WorkDirectory.create("run-generation-data");
+		inputBytes = DataGenerator.writeFiles(data, shape, records, 1, 42L);
+		input = data.resolve("0.txt");
+	}
+
+	@Setup(Level.Invocation)
+	public void createWorkDirectory() throws Exception {
+		work = WorkDirectory.create("run-generation");
+	}
+
+	@Benchmark
+	public void splitAndSort(Throughput throughput) throws Exception {
+		FileMergeSort merge = new FileMergeSort();
+		merge.setByteMode(byteMode);
+		merge.splitAndSort(input.toString(), work.resolve("split").toString());
+		throughput.add(inputBytes, records);
+	}
+
+	@TearDown(Level.Invocation)
+	public void deleteWorkDirectory() throws Exception {
+		WorkDirectory.delete(work);
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteData() throws Exception {
+		WorkDirectory.delete(data);
+	}
+}
@@ -0,0 +1,37 @@
+package com.file.service.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Secondary results of a benchmark: the input megabytes and records processed, which JMH reports per second
+ * next to the operations of the benchmark.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Throughput {
+
+	private static final double MEGABYTE = 1024.0 * 1024.0;
+
+	/** Input megabytes processed, reported as MB/s. */
+	public double megabytes;
+	/** Input lines processed, reported as records/s. */
+	public long records;
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		megabytes = 0.0;
+		records = 0L;
+	}
+
+	/**
+	 * Count one operation over the given input.
+	 */
+	void add(long inputBytes, long inputRecords) {
+		megabytes += inputBytes / MEGABYTE;
+		records += inputRecords;
+	}
+}
@@ -0,0 +1,34 @@
+package com.file.service.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Temporary directories of the benchmarks, deleted with everything FileMergeSort left inside them.
+ */
+final class WorkDirectory {
+
+	private WorkDirectory() {
+	}
+
+	static Path create(String prefix) throws IOException {
+		return Files.createTempDirectory(prefix);
+	}
+
+	static void delete(Path directory) throws IOException {
+		if (directory == null || !Files.exists(directory)) {
+			return;
+		}
+		try (Stream<Path> paths = Files.walk(directory)) {
+			List<Path> all = paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+			for (Path path : all) {
+				Files.delete(path);
+			}
+		}
+	}
+}
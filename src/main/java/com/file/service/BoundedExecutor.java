@@ -0,0 +1,149 @@
+package com.file.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs tasks on a fixed pool of threads while allowing at most maxInFlight tasks to be
+ * queued or running at the same time. submit() blocks the caller once the limit is reached,
+ * so a producer that hands a block of lines to each task never holds more than
+ * maxInFlight blocks in memory.
+ * With a parallelism of 1 the tasks are run inline on the calling thread.
+ */
+class BoundedExecutor implements AutoCloseable {
+
+	/**
+	 * Unit of work submitted to the executor.
+	 */
+	interface Task {
+		void run() throws IOException;
+	}
+
+	private final ExecutorService executor;
+	private final Semaphore permits;
+	private final int maxInFlight;
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+	private final AtomicLong waitNanos = new AtomicLong();
+
+	/**
+	 * @param parallelism - Number of worker threads, 1 runs every task inline
+	 * @param maxInFlight - Maximum number of tasks queued or running at once
+	 */
+	BoundedExecutor(int parallelism, int maxInFlight) {
+		this.maxInFlight = Math.max(1, maxInFlight);
+		this.permits = new Semaphore(this.maxInFlight);
+		this.executor = parallelism > 1 ? Executors.newFixedThreadPool(parallelism, runnable -> {
+			Thread thread = new Thread(runnable, "merge-sort-worker");
+			thread.setDaemon(true);
+			return thread;
+		}) : null;
+	}
+
+	/**
+	 * Submit a task, waiting for a free slot if maxInFlight tasks are already pending.
+	 * @param task - Task to run
+	 * @throws IOException - if an earlier task failed, or the task itself fails when run inline
+	 */
+	void submit(Task task) throws IOException {
+		rethrowFailure();
+		if (executor == null) {
+			task.run();
+			return;
+		}
+		if (!permits.tryAcquire()) {
+			long waitStart = System.nanoTime();
+			try {
+				permits.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for a worker");
+			}
+			waitNanos.addAndGet(System.nanoTime() - waitStart);
+		}
+		executor.execute(() -> {
+			try {
+				task.run();
+			} catch (Throwable t) {
+				failure.compareAndSet(null, t);
+			} finally {
+				permits.release();
+			}
+		});
+	}
+
+	/**
+	 * Wait until every submitted task has finished.
+	 * @throws IOException - if any of the tasks failed
+	 */
+	void awaitCompletion() throws IOException {
+		if (executor != null) {
+			try {
+				permits.acquire(maxInFlight);
+				permits.release(maxInFlight);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for workers");
+			}
+		}
+		rethrowFailure();
+	}
+
+	/**
+	 * @return Total time in nanoseconds submit() waited for a free slot
+	 */
+	long getWaitNanos() {
+		return waitNanos.get();
+	}
+
+	private void rethrowFailure() throws IOException {
+		Throwable t = failure.get();
+		if (t == null) {
+			return;
+		}
+		if (t instanceof IOException e) {
+			throw e;
+		}
+		if (t instanceof UncheckedIOException e) {
+			throw e.getCause();
+		}
+		if (t instanceof RuntimeException e) {
+			throw e;
+		}
+		if (t instanceof Error e) {
+			throw e;
+		}
+		throw new IOException(t.getMessage(), t);
+	}
+
+	/**
+	 * Stop the workers and wait until they have all returned, so that no task is still writing a file once the
+	 * caller goes on, for example to delete the temporary directory after a failure.
+	 * Tasks not started yet are dropped and running tasks are interrupted.
+	 */
+	@Override
+	public void close() {
+		if (executor == null) {
+			return;
+		}
+		executor.shutdownNow();
+		boolean interrupted = false;
+		while (true) {
+			try {
+				if (executor.awaitTermination(1, TimeUnit.MINUTES)) {
+					break;
+				}
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,210 @@
+package com.file.service;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Block of lines kept as raw UTF-8 bytes for the byte mode of run generation.
+ * Lines are copied one after another into a single large array and addressed by offset and length,
+ * so a block of millions of lines is a handful of objects instead of one String per line.
+ * Lines are sorted by comparing their bytes as unsigned values, which is the same order as
+ * String.compareTo for text without supplementary characters.
+ * Every line also caches its first 8 bytes as a long prefix, and the sort is a radix sort on the prefixes that
+ * only compares the lines themselves when their prefixes are equal, see PrefixSorter.
+ * The footprint of the block is exactly the size of its arrays: the line bytes plus 24 bytes per index slot
+ * (offset, length, prefix and the two index arrays of the sort). Arrays grow on demand and only as far as the
+ * memory limit allows, sharing it between line bytes and index in proportion to the average line length seen so
+ * far. With a SortSpec, the keys of every line are extracted once as it is added, into 8 more bytes per key and
+ * index slot, the prefix is the normalized first key, and the sort compares the keys instead of the whole lines.
+ */
+class ByteRecordBlock implements RecordBlock {
+
+	private static final int LINE_INDEX_BYTES = 24;
+	private static final int ARRAY_HEADER_BYTES = 16;
+	private static final int REFERENCE_BYTES = 4 + 4 + 4;
+	private static final int MINIMUM_DATA_CAPACITY = 64 * 1024;
+	private static final int MINIMUM_INDEX_CAPACITY = 1024;
+	private static final long MAXIMUM_ARRAY_SIZE = Integer.MAX_VALUE - 16;
+
+	private final long memoryLimit;
+	private final SortSpec sortSpec;
+	private final int keyCount;
+	private final int indexBytes;
+	private byte[] data = new byte[0];
+	private int used = 0;
+	private int count = 0;
+	private int[] offsets = new int[0];
+	private int[] lengths = new int[0];
+	private int[] order = new int[0];
+	private int[] buffer = new int[0];
+	private long[] keys = new long[0];
+	private long[] prefixes = new long[0];
+
+	/**
+	 * @param memoryLimit - Maximum size in bytes of the arrays of the block
+	 */
+	ByteRecordBlock(long memoryLimit) {
+		this(memoryLimit, null);
+	}
+
+	/**
+	 * @param memoryLimit - Maximum size in bytes of the arrays of the block
+	 * @param sortSpec - Order of the lines, null for the order of their bytes
+	 */
+	ByteRecordBlock(long memoryLimit, SortSpec sortSpec) {
+		this.memoryLimit = memoryLimit;
+		this.sortSpec = sortSpec;
+		this.keyCount = sortSpec == null ? 0 : sortSpec.keyCount();
+		this.indexBytes = LINE_INDEX_BYTES + 8 * keyCount;
+	}
+
+	@Override
+	public boolean add(byte[] bytes, int offset, int length) {
+		if (length > data.length - used && !growData(used + (long) length)) {
+			return false;
+		}
+		if (count == offsets.length && !growIndex()) {
+			return false;
+		}
+		System.arraycopy(bytes, offset, data, used, length);
+		offsets[count] = used;
+		lengths[count] = length;
+		if (sortSpec != null) {
+			sortSpec.extract(data, used, length, keys, count * keyCount);
+			prefixes[count] = sortSpec.prefix(data, used, keys, count * keyCount);
+		} else {
+			prefixes[count] = PrefixSorter.bytePrefix(data, used, length);
+		}
+		used += length;
+		count++;
+		return true;
+	}
+
+	private boolean growData(long required) {
+		if (required > MAXIMUM_ARRAY_SIZE) {
+			return false;
+		}
+		long indexSize = (long) indexBytes * offsets.length;
+		long fit = memoryLimit - indexSize;
+		if (count > 0) {
+			double averageLength = (double) used / count;
+			fit = Math.min(fit, (long) (memoryLimit * averageLength / (averageLength + indexBytes)));
+		} else {
+			fit = Math.min(fit, memoryLimit / 2);
+		}
+		long capacity = Math.min(Math.max(MINIMUM_DATA_CAPACITY, data.length * 2L), Math.min(fit, MAXIMUM_ARRAY_SIZE));
+		if (capacity < required) {
+			if (count > 0) {
+				return false;
+			}
+			capacity = required;
+		}
+		data = Arrays.copyOf(data, (int) capacity);
+		return true;
+	}
+
+	private boolean growIndex() {
+		long fit = (memoryLimit - data.length) / indexBytes;
+		if (count > 0) {
+			double averageLength = (double) used / count;
+			fit = Math.min(fit, (long) (memoryLimit / (averageLength + indexBytes)));
+		}
+		long capacity = Math.min(Math.max(MINIMUM_INDEX_CAPACITY, offsets.length * 2L), Math.min(fit, MAXIMUM_ARRAY_SIZE));
+		if (capacity <= count) {
+			if (count > 0) {
+				return false;
+			}
+			capacity = 1;
+		}
+		offsets = Arrays.copyOf(offsets, (int) capacity);
+		lengths = Arrays.copyOf(lengths, (int) capacity);
+		prefixes = Arrays.copyOf(prefixes, (int) capacity);
+		if (keyCount > 0) {
+			keys = Arrays.copyOf(keys, (int) capacity * keyCount);
+		}
+		return true;
+	}
+
+	/**
+	 * Estimated heap of a line held on its own as a byte array, as replacement selection does: the array header,
+	 * its bytes and the references to it.
+	 */
+	static long estimate(int length) {
+		return ARRAY_HEADER_BYTES + ((length + 7L) & ~7L) + REFERENCE_BYTES;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	@Override
+	public int size() {
+		return count;
+	}
+
+	@Override
+	public long footprint() {
+		return data.length + (long) indexBytes * offsets.length;
+	}
+
+	/**
+	 * Sort the lines of the block with a radix sort on their prefixes.
+	 */
+	@Override
+	public void sort() {
+		if (order.length < count) {
+			order = new int[offsets.length];
+			buffer = new int[offsets.length];
+		}
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		PrefixSorter.sort(prefixes, order, buffer, count, sortSpec != null ? this::compare : this::compareAfterPrefix);
+	}
+
+	private int compare(int a, int b) {
+		if (sortSpec != null) {
+			return sortSpec.compare(data, offsets[a], lengths[a], keys, a * keyCount, data, offsets[b], lengths[b], keys, b * keyCount);
+		}
+		int result = Long.compareUnsigned(prefixes[a], prefixes[b]);
+		return result != 0 ? result : compareAfterPrefix(a, b);
+	}
+
+	/**
+	 * Compare the bytes of two lines with equal prefixes, past the bytes the prefixes already hold.
+	 */
+	private int compareAfterPrefix(int a, int b) {
+		int lengthA = lengths[a];
+		int lengthB = lengths[b];
+		int skip = Math.min(Long.BYTES, Math.min(lengthA, lengthB));
+		return Arrays.compareUnsigned(data, offsets[a] + skip, offsets[a] + lengthA, data, offsets[b] + skip, offsets[b] + lengthB);
+	}
+
+	@Override
+	public void writeTo(OutputSink output, Duplicates duplicates) throws IOException {
+		for (int i = 0; i < count; i++) {
+			int record = order[i];
+			if (duplicates == Duplicates.KEEP) {
+				output.write(data, offsets[record], lengths[record]);
+				continue;
+			}
+			int end = i + 1;
+			while (end < count && compare(record, order[end]) == 0) {
+				end++;
+			}
+			if (duplicates == Duplicates.COUNT) {
+				output.write(data, offsets[record], lengths[record], end - i);
+			} else {
+				output.write(data, offsets[record], lengths[record]);
+			}
+			i = end - 1;
+		}
+	}
+
+	@Override
+	public void clear() {
+		used = 0;
+		count = 0;
+	}
+}
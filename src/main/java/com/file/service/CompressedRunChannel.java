@@ -0,0 +1,154 @@
+package com.file.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Channel writing a block compressed temporary file.
+ * Bytes are collected into blocks; each full block is compressed on a codec thread while the writer keeps filling
+ * the next one, and compressed blocks are written in order by the writing thread.
+ * Every block is stored as its uncompressed length, its stored length and the stored bytes (both lengths as 4 byte
+ * big endian ints). A negative stored length marks a block kept uncompressed because compression did not shrink it.
+ */
+class CompressedRunChannel implements WritableByteChannel {
+
+	static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+	private static final int MAX_PENDING_BLOCKS = 2;
+
+	/**
+	 * Threads compressing and decompressing blocks of temporary files, one per core as the work is CPU bound.
+	 * Codec tasks never block on I/O, which is left to the threads writing and reading the files.
+	 */
+	static final ExecutorService CODEC_THREADS = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+		Thread thread = new Thread(runnable, "merge-sort-codec");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final WritableByteChannel channel;
+	private final RunCodec codec;
+	private final int blockSize;
+	private final Queue<PendingBlock> pendingBlocks = new ArrayDeque<>();
+	private final Queue<byte[]> freeBlocks = new ArrayDeque<>();
+	private byte[] block;
+	private int blockLength = 0;
+	private boolean open = true;
+
+	/**
+	 * @param channel - Channel receiving the compressed blocks
+	 * @param codec - Codec compressing the blocks
+	 * @param blockSize - Size of an uncompressed block in bytes
+	 */
+	CompressedRunChannel(WritableByteChannel channel, RunCodec codec, int blockSize) {
+		this.channel = channel;
+		this.codec = codec;
+		this.blockSize = blockSize;
+		this.block = new byte[blockSize];
+	}
+
+	/**
+	 * @return Bytes held by the blocks and compressed frames of a channel writing blocks of blockSize bytes
+	 */
+	static long bufferMemory(RunCodec codec, int blockSize) {
+		return (MAX_PENDING_BLOCKS + 1L) * (blockSize + 8L + codec.maxCompressedLength(blockSize));
+	}
+
+	@Override
+	public int write(ByteBuffer source) throws IOException {
+		int written = source.remaining();
+		while (source.hasRemaining()) {
+			int length = Math.min(source.remaining(), blockSize - blockLength);
+			source.get(block, blockLength, length);
+			blockLength += length;
+			if (blockLength == blockSize) {
+				submitBlock();
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Block handed to a codec thread, with the compressed frame it completes with.
+	 */
+	private record PendingBlock(byte[] block, CompletableFuture<ByteBuffer> frame) {
+	}
+
+	private void submitBlock() throws IOException {
+		byte[] full = block;
+		int length = blockLength;
+		pendingBlocks.add(new PendingBlock(full, CompletableFuture.supplyAsync(() -> compress(full, length), CODEC_THREADS)));
+		while (pendingBlocks.size() > MAX_PENDING_BLOCKS) {
+			writeBlock(pendingBlocks.poll());
+		}
+		block = freeBlocks.isEmpty() ? new byte[blockSize] : freeBlocks.poll();
+		blockLength = 0;
+	}
+
+	private ByteBuffer compress(byte[] source, int length) {
+		byte[] target = new byte[8 + codec.maxCompressedLength(length)];
+		int compressedLength = codec.compress(source, 0, length, target, 8);
+		ByteBuffer frame;
+		if (compressedLength < length) {
+			frame = ByteBuffer.wrap(target, 0, 8 + compressedLength);
+			frame.putInt(0, length).putInt(4, compressedLength);
+		} else {
+			frame = ByteBuffer.allocate(8 + length);
+			frame.putInt(length).putInt(-length).put(source, 0, length).flip();
+		}
+		return frame;
+	}
+
+	private void writeBlock(PendingBlock pending) throws IOException {
+		ByteBuffer frame;
+		try {
+			frame = pending.frame().join();
+		} catch (CompletionException e) {
+			throw unwrap(e, "Error while compressing temporary file");
+		}
+		freeBlocks.add(pending.block());
+		while (frame.hasRemaining()) {
+			channel.write(frame);
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (!open) {
+			return;
+		}
+		open = false;
+		try {
+			if (blockLength > 0) {
+				submitBlock();
+			}
+			while (!pendingBlocks.isEmpty()) {
+				writeBlock(pendingBlocks.poll());
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Unwrap the IOException of a failed codec task.
+	 */
+	static IOException unwrap(CompletionException e, String message) {
+		if (e.getCause() instanceof UncheckedIOException unchecked) {
+			return unchecked.getCause();
+		}
+		return new IOException(message, e.getCause());
+	}
+}
@@ -0,0 +1,162 @@
+package com.file.service;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * InputStream reading a temporary file written by CompressedRunChannel.
+ * While the caller reads one decompressed block, the next block is read on a virtual thread and decompressed on
+ * a codec thread into a second buffer, so reads and decompression overlap with the merge. Only the reads block, so
+ * merging hundreds of compressed files parks virtual threads instead of starting a platform thread per file.
+ */
+class CompressedRunInputStream extends InputStream {
+
+	private final DataInputStream in;
+	private final RunCodec codec;
+	private byte[] current = new byte[0];
+	private byte[] spare = new byte[0];
+	private byte[] compressed = new byte[0];
+	private int storedLength = 0;
+	private int position = 0;
+	private int limit = 0;
+	private CompletableFuture<Integer> next;
+
+	/**
+	 * @param in - Stream of the compressed file
+	 * @param codec - Codec the file was compressed with
+	 */
+	CompressedRunInputStream(InputStream in, RunCodec codec) {
+		this.in = new DataInputStream(in);
+		this.codec = codec;
+		this.next = readAhead();
+	}
+
+	/**
+	 * @return Bytes held by the buffers of a stream reading blocks of blockSize bytes
+	 */
+	static long bufferMemory(RunCodec codec, int blockSize) {
+		return 2L * blockSize + codec.maxCompressedLength(blockSize);
+	}
+
+	/**
+	 * Read the next block on a virtual thread, then decompress it into the spare buffer on a codec thread.
+	 * Completes with the length of the block, or -1 at End of File.
+	 */
+	private CompletableFuture<Integer> readAhead() {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return readBlock();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, ReadAheadInputStream.READ_THREADS).thenCompose(length -> storedLength < 0 ? CompletableFuture.completedFuture(length)
+				: CompletableFuture.supplyAsync(() -> {
+					try {
+						codec.decompress(compressed, 0, storedLength, spare, 0, length);
+						return length;
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				}, CompressedRunChannel.CODEC_THREADS));
+	}
+
+	/**
+	 * Read the next block, into the spare buffer if it is stored uncompressed, otherwise into the compressed buffer
+	 * with its length in storedLength.
+	 * @return Length of the uncompressed block, or -1 at End of File
+	 */
+	private int readBlock() throws IOException {
+		int originalLength;
+		try {
+			originalLength = in.readInt();
+		} catch (EOFException e) {
+			storedLength = -1;
+			return -1;
+		}
+		storedLength = in.readInt();
+		if (spare.length < originalLength) {
+			spare = new byte[originalLength];
+		}
+		if (storedLength < 0) {
+			in.readFully(spare, 0, originalLength);
+			return originalLength;
+		}
+		if (compressed.length < storedLength) {
+			compressed = new byte[storedLength];
+		}
+		in.readFully(compressed, 0, storedLength);
+		return originalLength;
+	}
+
+	/**
+	 * Swap in the block decompressed ahead and start on the one after it.
+	 * @return false at End of File
+	 */
+	private boolean nextBlock() throws IOException {
+		if (next == null) {
+			return false;
+		}
+		int length;
+		try {
+			length = next.join();
+		} catch (CompletionException e) {
+			next = null;
+			throw CompressedRunChannel.unwrap(e, "Error while decompressing temporary file");
+		}
+		if (length < 0) {
+			next = null;
+			return false;
+		}
+		byte[] swap = current;
+		current = spare;
+		spare = swap;
+		position = 0;
+		limit = length;
+		next = readAhead();
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		while (position == limit) {
+			if (!nextBlock()) {
+				return -1;
+			}
+		}
+		return current[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] bytes, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+		while (position == limit) {
+			if (!nextBlock()) {
+				return -1;
+			}
+		}
+		int count = Math.min(length, limit - position);
+		System.arraycopy(current, position, bytes, offset, count);
+		position += count;
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (next != null) {
+			try {
+				next.join();
+			} catch (CompletionException e) {
+				// the block is discarded anyway
+			}
+			next = null;
+		}
+		in.close();
+	}
+}
@@ -0,0 +1,74 @@
+package com.file.service;
+
+import java.io.IOException;
+
+/**
+ * LineReader over a temporary file of counted lines, each written as the line, a tab and its count.
+ * The count is parsed from the digits after the last tab and the line is exposed without it, so the merge
+ * compares only the lines themselves.
+ */
+class CountedLineReader implements LineReader {
+
+	private final LineReader reader;
+	private int length;
+	private long count;
+
+	/**
+	 * @param reader - Reader of the counted temporary file
+	 */
+	CountedLineReader(LineReader reader) {
+		this.reader = reader;
+	}
+
+	@Override
+	public boolean next() throws IOException {
+		if (!reader.next()) {
+			return false;
+		}
+		byte[] array = reader.array();
+		int start = reader.offset();
+		int end = start + reader.length();
+		long value = 0L;
+		long scale = 1L;
+		int position = end - 1;
+		for (; position >= start && array[position] != '\t'; position--) {
+			int digit = array[position] - '0';
+			if (digit < 0 || digit > 9) {
+				throw new IOException("Corrupt count in temporary file");
+			}
+			value += digit * scale;
+			scale *= 10;
+		}
+		if (position < start || position == end - 1) {
+			throw new IOException("Missing count in temporary file");
+		}
+		length = position - start;
+		count = value;
+		return true;
+	}
+
+	@Override
+	public byte[] array() {
+		return reader.array();
+	}
+
+	@Override
+	public int offset() {
+		return reader.offset();
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public long count() {
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
@@ -0,0 +1,24 @@
+package com.file.service;
+
+/**
+ * What the sort does with equal lines. Sorted data only needs the previous line to find duplicates, so they are
+ * dropped or counted as blocks and temporary files are written as well as during every merge, before they reach disk.
+ */
+enum Duplicates {
+
+	/**
+	 * Write every line.
+	 */
+	KEEP,
+
+	/**
+	 * Write each distinct line once.
+	 */
+	REMOVE,
+
+	/**
+	 * Write each distinct line once followed by a tab and the number of times it occurred. Temporary files hold
+	 * the counts of their lines in the same form and merges add them up.
+	 */
+	COUNT
+}
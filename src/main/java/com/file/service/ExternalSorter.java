@@ -0,0 +1,337 @@
+package com.file.service;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Sorts lines from an Iterator, an InputStream or a ReadableByteChannel into an OutputStream or a consumer,
+ * with the external merge sort of FileMergeSort, so data can be piped through without staging it in a directory.
+ * Only the sorted temporary files are written to disk, in a directory of their own created inside the temporary
+ * directory for every sort and deleted when it is over.
+ *
+ * <pre>
+ * ExternalSorter sorter = ExternalSorter.builder().memoryBudget(256L * 1024 * 1024).removeDuplicates(true).build();
+ * sorter.sort(System.in, System.out);
+ * </pre>
+ *
+ * Lines are read as UTF-8 and end at '\n' (a '\r' right before it is dropped); every String of an Iterator is
+ * one line, so an IllegalArgumentException rejects a String holding a '\n' or '\r'. Sorted lines are written as
+ * UTF-8 followed by the line separator of the platform.
+ * Streams and channels given to sort are read to their end and never closed; an OutputStream is flushed.
+ * An ExternalSorter is immutable, so several sorts may run at the same time.
+ */
+public final class ExternalSorter {
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+	private final Builder settings;
+
+	private ExternalSorter(Builder settings) {
+		this.settings = settings;
+	}
+
+	/**
+	 * @return Builder of an ExternalSorter with the defaults of FileMergeSort
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Sort lines into an OutputStream.
+	 * @param lines - Lines to sort, none of them null or holding a '\n' or '\r'
+	 * @param output - Receives the sorted lines
+	 * @return Metrics of the sort
+	 * @throws IOException
+	 */
+	public SortMetrics sort(Iterator<String> lines, OutputStream output) throws IOException {
+		IteratorLineReader reader = new IteratorLineReader(lines);
+		return sort(reader, reader::bytesRead, channel(output));
+	}
+
+	/**
+	 * Sort lines, passing every sorted line to a consumer.
+	 * @param lines - Lines to sort, none of them null or holding a '\n' or '\r'
+	 * @param consumer - Receives the sorted lines in order
+	 * @return Metrics of the sort
+	 * @throws IOException
+	 */
+	public SortMetrics sort(Iterator<String> lines, Consumer<String> consumer) throws IOException {
+		IteratorLineReader reader = new IteratorLineReader(lines);
+		return sort(reader, reader::bytesRead, new LineConsumerChannel(consumer));
+	}
+
+	/**
+	 * Sort the lines of an InputStream into an OutputStream.
+	 * @param input - Lines to sort, read to the end
+	 * @param output - Receives the sorted lines
+	 * @return Metrics of the sort
+	 * @throws IOException
+	 */
+	public SortMetrics sort(InputStream input, OutputStream output) throws IOException {
+		StreamLineReader reader = reader(input);
+		return sort(reader, reader::bytesRead, channel(output));
+	}
+
+	/**
+	 * Sort the lines of an InputStream, passing every sorted line to a consumer.
+	 * @param input - Lines to sort, read to the end
+	 * @param consumer - Receives the sorted lines in order
+	 * @return Metrics of the sort
+	 * @throws IOException
+	 */
+	public SortMetrics sort(InputStream input, Consumer<String> consumer) throws IOException {
+		StreamLineReader reader = reader(input);
+		return sort(reader, reader::bytesRead, new LineConsumerChannel(consumer));
+	}
+
+	/**
+	 * Sort the lines of a channel into an OutputStream.
+	 * @param input - Lines to sort, read to the end
+	 * @param output - Receives the sorted lines
+	 * @return Metrics of the sort
+	 * @throws IOException
+	 */
+	public SortMetrics sort(ReadableByteChannel input, OutputStream output) throws IOException {
+		return sort(Channels.newInputStream(input), output);
+	}
+
+	/**
+	 * Sort the lines of a channel, passing every sorted line to a consumer.
+	 * @param input - Lines to sort, read to the end
+	 * @param consumer - Receives the sorted lines in order
+	 * @return Metrics of the sort
+	 * @throws IOException
+	 */
+	public SortMetrics sort(ReadableByteChannel input, Consumer<String> consumer) throws IOException {
+		return sort(Channels.newInputStream(input), consumer);
+	}
+
+	private SortMetrics sort(LineReader reader, LongSupplier bytesRead, WritableByteChannel output)
+			throws IOException {
+		FileMergeSort sorter = settings.configure(new FileMergeSort());
+		sorter.sortStream(reader, bytesRead, settings.tempDirectory, output, settings.removeDuplicates);
+		return sorter.getMetrics();
+	}
+
+	private static StreamLineReader reader(InputStream input) {
+		return new StreamLineReader(new FilterInputStream(input) {
+			@Override
+			public void close() {
+			}
+		}, READ_BUFFER_SIZE);
+	}
+
+	private static WritableByteChannel channel(OutputStream output) {
+		return Channels.newChannel(new FilterOutputStream(output) {
+			@Override
+			public void write(byte[] bytes, int offset, int length) throws IOException {
+				out.write(bytes, offset, length);
+			}
+
+			@Override
+			public void close() throws IOException {
+				out.flush();
+			}
+		});
+	}
+
+	/**
+	 * Settings of an ExternalSorter, validated by build() with the setters of FileMergeSort.
+	 */
+	public static final class Builder {
+
+		private Path tempDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
+		private boolean removeDuplicates = false;
+		private boolean countDuplicates = false;
+		private boolean byteMode = false;
+		private SortSpec sortSpec = null;
+		private long memoryBudget = 0L;
+		private int writeBufferSize = 0;
+		private int parallelism = 0;
+		private int maxFanIn = 0;
+		private RunStrategy runStrategy = RunStrategy.BLOCK_SORT;
+		private RunCodec runCodec = null;
+		private boolean readAhead = false;
+		private SortListener sortListener = null;
+		private Path metricsFile = null;
+
+		private Builder() {
+		}
+
+		/**
+		 * @param tempDirectory - Directory inside which every sort creates its own directory of temporary files,
+		 * defaults to java.io.tmpdir
+		 */
+		public Builder tempDirectory(Path tempDirectory) {
+			if (tempDirectory == null) {
+				throw new IllegalArgumentException("Temporary directory cannot be null");
+			}
+			this.tempDirectory = tempDirectory;
+			return this;
+		}
+
+		/**
+		 * @param removeDuplicates - Write equal lines once, defaults to false
+		 */
+		public Builder removeDuplicates(boolean removeDuplicates) {
+			this.removeDuplicates = removeDuplicates;
+			return this;
+		}
+
+		/**
+		 * @see FileMergeSort#setCountDuplicates(boolean)
+		 */
+		public Builder countDuplicates(boolean countDuplicates) {
+			this.countDuplicates = countDuplicates;
+			return this;
+		}
+
+		/**
+		 * @see FileMergeSort#setByteMode(boolean)
+		 */
+		public Builder byteMode(boolean byteMode) {
+			this.byteMode = byteMode;
+			return this;
+		}
+
+		/**
+		 * @see FileMergeSort#setSortSpec(SortSpec)
+		 */
+		public Builder sortSpec(SortSpec sortSpec) {
+			this.sortSpec = sortSpec;
+			return this;
+		}
+
+		/**
+		 * @see FileMergeSort#setMemoryBudget(long)
+		 */
+		public Builder memoryBudget(long memoryBudget) {
+			this.memoryBudget = memoryBudget;
+			return this;
+		}
+
+		/**
+		 * @param writeBufferSize - Size of the write buffer of every sorting thread, taken from the memory budget,
+		 * 0 (the default) keeps the default of FileMergeSort
+		 * @see FileMergeSort#setWriteBufferSize(int)
+		 */
+		public Builder writeBufferSize(int writeBufferSize) {
+			this.writeBufferSize = writeBufferSize;
+			return this;
+		}
+
+		/**
+		 * @param parallelism - Number of sorting threads, 0 (the default) uses the number of available processors
+		 * @see FileMergeSort#setParallelism(int)
+		 */
+		public Builder parallelism(int parallelism) {
+			this.parallelism = parallelism;
+			return this;
+		}
+
+		/**
+		 * @see FileMergeSort#setMaxFanIn(int)
+		 */
+		public Builder maxFanIn(int maxFanIn) {
+			this.maxFanIn = maxFanIn;
+			return this;
+		}
+
+		/**
+		 * @see FileMergeSort#setRunStrategy(RunStrategy)
+		 */
+		public Builder runStrategy(RunStrategy runStrategy) {
+			this.runStrategy = runStrategy;
+			return this;
+		}
+
+		/**
+		 * @see FileMergeSort#setRunCodec(RunCodec)
+		 */
+		public Builder runCodec(RunCodec runCodec) {
+			this.runCodec = runCodec;
+			return this;
+		}
+
+		/**
+		 * @see FileMergeSort#setReadAhead(boolean)
+		 */
+		public Builder readAhead(boolean readAhead) {
+			this.readAhead = readAhead;
+			return this;
+		}
+
+		/**
+		 * @see FileMergeSort#setSortListener(SortListener)
+		 */
+		public Builder sortListener(SortListener sortListener) {
+			this.sortListener = sortListener;
+			return this;
+		}
+
+		/**
+		 * @param metricsFile - JSON file the metrics of every sort are written to, replaced by every sort
+		 * @see FileMergeSort#setMetricsFile(String)
+		 */
+		public Builder metricsFile(Path metricsFile) {
+			this.metricsFile = metricsFile;
+			return this;
+		}
+
+		/**
+		 * @return ExternalSorter with a copy of these settings
+		 * @throws IllegalArgumentException - if a setting is out of range
+		 */
+		public ExternalSorter build() {
+			Builder copy = new Builder();
+			copy.tempDirectory = tempDirectory;
+			copy.removeDuplicates = removeDuplicates;
+			copy.countDuplicates = countDuplicates;
+			copy.byteMode = byteMode;
+			copy.sortSpec = sortSpec;
+			copy.memoryBudget = memoryBudget;
+			copy.writeBufferSize = writeBufferSize;
+			copy.parallelism = parallelism;
+			copy.maxFanIn = maxFanIn;
+			copy.runStrategy = runStrategy;
+			copy.runCodec = runCodec;
+			copy.readAhead = readAhead;
+			copy.sortListener = sortListener;
+			copy.metricsFile = metricsFile;
+			copy.configure(new FileMergeSort());
+			return new ExternalSorter(copy);
+		}
+
+		private FileMergeSort configure(FileMergeSort sorter) {
+			sorter.setCountDuplicates(countDuplicates);
+			sorter.setByteMode(byteMode);
+			sorter.setSortSpec(sortSpec);
+			sorter.setMemoryBudget(memoryBudget);
+			if (writeBufferSize != 0) {
+				sorter.setWriteBufferSize(writeBufferSize);
+			}
+			if (parallelism != 0) {
+				sorter.setParallelism(parallelism);
+			}
+			sorter.setMaxFanIn(maxFanIn);
+			sorter.setRunStrategy(runStrategy);
+			sorter.setRunCodec(runCodec);
+			sorter.setReadAhead(readAhead);
+			sorter.setSortListener(sortListener);
+			sorter.setMetricsFile(metricsFile == null ? null : metricsFile.toString());
+			return sorter;
+		}
+	}
+}
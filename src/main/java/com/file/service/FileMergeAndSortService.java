@@ -15,9 +15,14 @@ public class FileMergeAndSortService {
 	 * Output Directory Path
 	 * Temporary Directory Path
 	 * Remove Duplicates - true/false
+	 * With arguments, runs non-interactively with the flags described by --help and exits with 0 when the
+	 * sort completed, 1 when it failed and 2 for invalid arguments.
 	 * @param args
 	 */
 	public static void main(String[] args) {
+		if (args.length > 0) {
+			System.exit(SortCommand.run(args, System.in, System.out, System.err));
+		}
 		Scanner scanner = new Scanner(new InputStreamReader(System.in));
 		System.out.println("Please enter Input directory Path : ");
 		String inputDirectoryPath = scanner.nextLine();
@@ -32,6 +37,7 @@ public class FileMergeAndSortService {
 		try {
 			mergeSorter.mergeAndSortFiles(inputDirectoryPath, outputFilePath, tempDirectoryPath, removeDiplicates);
 			System.out.println("MERGE COMPLETED");
+			System.out.println(mergeSorter.getMetrics());
 		} catch (Exception e) {
 			System.out.println("MERGE FAILED -- " + e.getMessage());
 		}
@@ -1,21 +1,45 @@
 package com.file.service;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.List;
-import java.util.PriorityQueue;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.LongSupplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 /**
  * Program to Sort and Merge files of a directory in a way that is efficient and scalable 
  */
@@ -24,13 +48,341 @@ public class FileMergeSort {
 
 	private static final int Maximum_Temp_File_Count = 1024;
 
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private int maxBlocksInFlight = 0;
+	private boolean presortedInputs = false;
+	private int maxFanIn = 0;
+	private int readBufferSize = 64 * 1024;
+	private int writeBufferSize = 4 * 1024 * 1024;
+	private boolean syncOutput = false;
+	private boolean byteMode = false;
+	private boolean memoryMappedReads = false;
+	private int mappedWindowSize = 64 * 1024 * 1024;
+	private boolean sequentialReadHint = true;
+	private long memoryBudget = 0L;
+	private int memoryBudgetPercent = 50;
+	private RunCodec runCodec = null;
+	private RunStrategy runStrategy = RunStrategy.BLOCK_SORT;
+	private boolean readAhead = false;
+	private final ReadAheadStatistics readAheadStatistics = new ReadAheadStatistics();
+	private int mergePartitions = 1;
+	private boolean partitionedOutput = false;
+	private boolean countDuplicates = false;
+	private SortSpec sortSpec = null;
+	private boolean resumable = false;
+	private JobManifest manifest = null;
+	private final Queue<ByteBuffer> runWriteBuffers = new ConcurrentLinkedQueue<>();
+	private final SortMetrics metrics = new SortMetrics(readAheadStatistics);
+	private SortListener sortListener = null;
+	private String metricsFile = null;
+	private ObjectName jmxName = null;
+	private static final int PROGRESS_INTERVAL = 64 * 1024;
+	private static final String COUNTED_RUN_SUFFIX = ".counts";
+	private static final String PARTIAL_SUFFIX = ".partial";
+	private static final String SPLIT_DIRECTORY_NAME = "split";
+	private static final String OUTPUT_FILE_NAME = "output.dat";
+
+	/**
+	 * Number of threads used to sort and write blocks during run generation.
+	 * 1 sorts every block inline on the reading thread.
+	 * @param parallelism - Number of sorting threads, defaults to the number of available processors
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1");
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Maximum number of blocks handed to the sorting threads and not yet written.
+	 * The memory available to run generation is shared between these blocks and the block being filled.
+	 * @param maxBlocksInFlight - Maximum pending blocks, 0 uses the parallelism
+	 */
+	public void setMaxBlocksInFlight(int maxBlocksInFlight) {
+		if (maxBlocksInFlight < 0) {
+			throw new IllegalArgumentException("Maximum blocks in flight cannot be negative");
+		}
+		this.maxBlocksInFlight = maxBlocksInFlight;
+	}
+
+	/**
+	 * Promise that every input file is already sorted.
+	 * When the number of input files is at most Maximum_Temp_File_Count, the input files are then merged
+	 * directly without sorting them into temporary files first.
+	 * @param presortedInputs - true if every input file is sorted
+	 */
+	public void setPresortedInputs(boolean presortedInputs) {
+		this.presortedInputs = presortedInputs;
+	}
+
+	/**
+	 * Maximum number of sorted files merged at the same time.
+	 * When there are more sorted files, intermediate merge passes merge groups of this many files into new
+	 * temporary files until at most this many remain for the final merge.
+	 * @param maxFanIn - Maximum files merged at once (at least 2), 0 derives it from the memory budget and read buffer size
+	 */
+	public void setMaxFanIn(int maxFanIn) {
+		if (maxFanIn != 0 && maxFanIn < 2) {
+			throw new IllegalArgumentException("Fan-in must be at least 2");
+		}
+		this.maxFanIn = maxFanIn;
+	}
+
+	/**
+	 * Size of the read buffer opened for every sorted file during the merge.
+	 * @param readBufferSize - Buffer size in bytes, defaults to 64K
+	 */
+	public void setReadBufferSize(int readBufferSize) {
+		if (readBufferSize < 1) {
+			throw new IllegalArgumentException("Read buffer size must be positive");
+		}
+		this.readBufferSize = readBufferSize;
+	}
+
+	/**
+	 * Read every sorted file ahead on a virtual thread during the merge, into two buffers of the read buffer size
+	 * that are swapped as the merge uses them up. Worth enabling with large read buffers on slow or remote disks,
+	 * where the merge would otherwise wait on every refill. Compressed and memory mapped files already read ahead.
+	 * @param readAhead - Defaults to false
+	 */
+	public void setReadAhead(boolean readAhead) {
+		this.readAhead = readAhead;
+	}
+
+	/**
+	 * @return Counters of the read-ahead of the last merge, showing how often it waited for a buffer
+	 */
+	public ReadAheadStatistics getReadAheadStatistics() {
+		return readAheadStatistics;
+	}
+
+	/**
+	 * Split the final merge into key ranges merged in parallel, one per thread.
+	 * Range boundaries are sampled from the sorted files, which are then binary searched for the boundaries, so
+	 * every range reads its own part of each file. Compressed sorted files cannot be searched and are always
+	 * merged in a single range.
+	 * @param mergePartitions - Number of key ranges, defaults to 1 (a single merge)
+	 */
+	public void setMergePartitions(int mergePartitions) {
+		if (mergePartitions < 1) {
+			throw new IllegalArgumentException("Merge partitions must be at least 1");
+		}
+		this.mergePartitions = mergePartitions;
+	}
+
+	/**
+	 * Write every key range of the final merge to its own Output file, output-00000.dat, output-00001.dat...
+	 * in sorted order, instead of a single output.dat.
+	 * @param partitionedOutput - Defaults to false
+	 */
+	public void setPartitionedOutput(boolean partitionedOutput) {
+		this.partitionedOutput = partitionedOutput;
+	}
+
+	/**
+	 * Size of the buffer the Output file and the files of intermediate merge passes are written through.
+	 * @param writeBufferSize - Buffer size in bytes, defaults to 4M
+	 */
+	public void setWriteBufferSize(int writeBufferSize) {
+		if (writeBufferSize < 1) {
+			throw new IllegalArgumentException("Write buffer size must be positive");
+		}
+		this.writeBufferSize = writeBufferSize;
+	}
+
+	/**
+	 * Force the Output file to the storage device before the merge returns.
+	 * @param syncOutput - true to fsync the Output file once it is complete, defaults to false
+	 */
+	public void setSyncOutput(boolean syncOutput) {
+		this.syncOutput = syncOutput;
+	}
+
+	/**
+	 * Sort and merge lines as raw UTF-8 bytes instead of Strings.
+	 * Lines are kept in large byte arrays, compared as unsigned bytes and written without being decoded,
+	 * which gives the same order as String.compareTo for text without supplementary characters
+	 * (characters outside the Basic Multilingual Plane).
+	 * @param byteMode - true to sort raw bytes, defaults to false
+	 */
+	public void setByteMode(boolean byteMode) {
+		this.byteMode = byteMode;
+	}
+
+	/**
+	 * Read input and temporary files through memory mapped windows instead of read() calls,
+	 * for both splitting the input files and merging the sorted files.
+	 * Mapped windows are only released by the garbage collector. On Windows a mapped file cannot be deleted,
+	 * so the sorted files of a merge pass that cannot be deleted yet are left to the clean up at the end.
+	 * @param memoryMappedReads - true to map files into memory, defaults to false
+	 */
+	public void setMemoryMappedReads(boolean memoryMappedReads) {
+		this.memoryMappedReads = memoryMappedReads;
+	}
+
+	/**
+	 * Size of the window mapped at a time from a file larger than one window (mapped windows are limited to 2GB).
+	 * @param mappedWindowSize - Window size in bytes, defaults to 64M
+	 */
+	public void setMappedWindowSize(int mappedWindowSize) {
+		if (mappedWindowSize < 1) {
+			throw new IllegalArgumentException("Mapped window size must be positive");
+		}
+		this.mappedWindowSize = mappedWindowSize;
+	}
+
+	/**
+	 * Tell memory mapped reads that files are read front to back, so the next window is mapped and loaded
+	 * in the background while the current one is read.
+	 * @param sequentialReadHint - defaults to true
+	 */
+	public void setSequentialReadHint(boolean sequentialReadHint) {
+		this.sequentialReadHint = sequentialReadHint;
+	}
+
+	/**
+	 * Memory the sort may use for the blocks it sorts in memory and for the read buffers of the merge.
+	 * Run generation fills blocks up to this budget but never beyond it, whatever the free memory at the time.
+	 * @param memoryBudget - Budget in bytes, 0 uses the percentage of the maximum heap
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		if (memoryBudget < 0) {
+			throw new IllegalArgumentException("Memory budget cannot be negative");
+		}
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Memory budget as a percentage of the maximum heap, used unless setMemoryBudget sets it in bytes.
+	 * @param memoryBudgetPercent - Percentage between 1 and 90, defaults to 50
+	 */
+	public void setMemoryBudgetPercent(int memoryBudgetPercent) {
+		if (memoryBudgetPercent < 1 || memoryBudgetPercent > 90) {
+			throw new IllegalArgumentException("Memory budget percentage must be between 1 and 90");
+		}
+		this.memoryBudgetPercent = memoryBudgetPercent;
+	}
+
+	/**
+	 * Compress the sorted temporary files, trading CPU for disk I/O.
+	 * Blocks are compressed and decompressed on separate threads while runs are sorted and merged.
+	 * Compressed temporary files carry the extension of the codec, other files are read as plain text.
+	 * @param runCodec - Codec such as Lz4BlockCodec, null (the default) writes plain temporary files
+	 */
+	public void setRunCodec(RunCodec runCodec) {
+		this.runCodec = runCodec;
+	}
+
+	/**
+	 * Strategy used to split the input into sorted temporary files.
+	 * Replacement selection writes fewer and longer temporary files, which saves merge passes for large inputs
+	 * and turns sorted or nearly sorted input into a single file, but generates them on one thread.
+	 * @param runStrategy - Defaults to BLOCK_SORT
+	 */
+	public void setRunStrategy(RunStrategy runStrategy) {
+		if (runStrategy == null) {
+			throw new IllegalArgumentException("Run strategy cannot be null");
+		}
+		this.runStrategy = runStrategy;
+	}
+
+	/**
+	 * Write every distinct line once followed by a tab and the number of times it occurred, instead of the lines
+	 * themselves. Equal lines are already counted as the sorted temporary files are written, so they never reach
+	 * disk more than once per file. Implies removing duplicates.
+	 * @param countDuplicates - Defaults to false
+	 */
+	public void setCountDuplicates(boolean countDuplicates) {
+		this.countDuplicates = countDuplicates;
+	}
+
+	/**
+	 * Order of the lines, by fields of delimited lines, as numbers, ignoring case or descending.
+	 * Sorted temporary files, the merge and presorted input files all follow the same spec.
+	 * @param sortSpec - Spec of the keys, null (the default) sorts whole lines in natural order
+	 */
+	public void setSortSpec(SortSpec sortSpec) {
+		this.sortSpec = sortSpec;
+	}
+
+	/**
+	 * Keep a manifest of the job in the temporary directory, so that mergeAndSortFiles called again with the same
+	 * directories after a crash or a failure resumes from its last checkpoint instead of starting over.
+	 * Sorted temporary files are forced to the storage device and recorded with a checksum as they are completed:
+	 * after an input file once the input read since the last checkpoint reaches the memory budget, after every
+	 * input file sorted on its own, at the end of replacement selection, and after every file of a merge pass.
+	 * The temporary directory is kept when the job fails. The final merge is always redone.
+	 * @param resumable - Defaults to false
+	 */
+	public void setResumable(boolean resumable) {
+		this.resumable = resumable;
+	}
+
+	/**
+	 * @return Metrics of the current or last job: time per phase, throughput, temporary files, merge passes,
+	 * waits, garbage collection and the estimated remaining time
+	 */
+	public SortMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Listener told when each phase of a job starts and completes, of the progress after every sorted temporary
+	 * file and every 64K merged lines, and when the job is over.
+	 * @param sortListener - Listener, null (the default) for none
+	 */
+	public void setSortListener(SortListener sortListener) {
+		this.sortListener = sortListener;
+	}
+
+	/**
+	 * Write the metrics of every job as JSON to a file once the job has completed or failed. A completed job whose
+	 * metrics cannot be written fails with an IOException.
+	 * @param metricsFile - Path of the JSON file, replaced by every job, null (the default) writes none
+	 */
+	public void setMetricsFile(String metricsFile) {
+		this.metricsFile = metricsFile;
+	}
+
+	/**
+	 * Register the metrics in the platform MBean server as com.file.service:type=SortMetrics,name="jmxName",
+	 * replacing a registration of the same name.
+	 * @param jmxName - Name of the MBean, null unregisters it
+	 */
+	public void setJmxName(String jmxName) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if (this.jmxName != null && server.isRegistered(this.jmxName)) {
+				server.unregisterMBean(this.jmxName);
+			}
+			this.jmxName = null;
+			if (jmxName == null) {
+				return;
+			}
+			ObjectName name = new ObjectName("com.file.service:type=SortMetrics,name=" + ObjectName.quote(jmxName));
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(metrics, name);
+			this.jmxName = name;
+		} catch (JMException e) {
+			throw new IllegalArgumentException("Cannot register the metrics as " + jmxName, e);
+		}
+	}
+
 	/**
 	 * If the number of files in the Input Directory is greater that Maximum_Temp_File_Count,
-	 * Then merge files into a single file and then split this file in to atmost 1024 temparory
+	 * Then read the input files one after another and split their contents in to atmost 1024 sorted temparory
 	 * files. Easier to perform a K-way sort
 	 * 
-	 * If Number of files in input Directory is less than Maximum_Temp_File_Count then directly perform K-way sort on the files
-	 * and merge them.
+	 * If Number of files in input Directory is less than Maximum_Temp_File_Count then sort each input file into its own
+	 * temporary file and perform K-way sort on them. Input files promised to be sorted with setPresortedInputs
+	 * are merged directly.
+	 * When removing or counting duplicates, they are already dropped while the sorted temporary files are written.
+	 * With setResumable, a job left unfinished in the temporary directory by an earlier call with the same input
+	 * files and settings is resumed.
+	 * The Output file is written under a temporary name and renamed once complete, so it is never seen half written.
 	 * @param inputDirectoryPath - Input Directory path
 	 * @param outputFileDirectory - Output Directory path
 	 * @param tempDirectoryPath  - Directory Path to where the temporary file will be stored.
@@ -39,36 +391,198 @@ public class FileMergeSort {
 	 */
 	public void mergeAndSortFiles(String inputDirectoryPath, String outputFileDirectory, String tempDirectoryPath, boolean removeDiplicates)
 			throws Exception {
-		String tempSplitDirectoryPath = tempDirectoryPath + "\\split";
+		String tempSplitDirectoryPath = Paths.get(tempDirectoryPath, SPLIT_DIRECTORY_NAME).toString();
+		Duplicates duplicates = duplicates(removeDiplicates);
+		boolean completed = false;
+		metrics.start();
 		try {
 			mergeAndSortFilesSetup(outputFileDirectory);
 			List<Path> inputFilePaths = listFilesFromDirectory(inputDirectoryPath);
-			if (inputFilePaths.size() > Maximum_Temp_File_Count){
-				String tempMergedUnsortedFile = temproryMergeFiles(inputFilePaths, tempDirectoryPath);
-				splitAndSort(tempMergedUnsortedFile, tempSplitDirectoryPath);
+			metrics.setInputBytes(totalSize(inputFilePaths));
+			if (resumable) {
+				inputFilePaths.sort(null);
+				manifest = JobManifest.open(Paths.get(tempDirectoryPath, JobManifest.FILE_NAME), Path.of(tempSplitDirectoryPath),
+						inputFilePaths, jobFingerprint(inputFilePaths, duplicates));
+			}
+			if (presortedInputs && inputFilePaths.size() <= Maximum_Temp_File_Count) {
+				mergeSortedFiles(manifest != null ? manifest.sortedFiles(inputFilePaths) : inputFilePaths,
+						manifest != null ? manifest.sortedFiles(List.of()) : List.of(), tempSplitDirectoryPath, outputFileDirectory,
+						duplicates);
+			} else if (manifest != null) {
+				List<Path> pendingInputs = manifest.pendingInputs();
+				if (!manifest.isResumed()) {
+					generateOrSortRuns(inputFilePaths, tempSplitDirectoryPath, duplicates);
+				} else if (inputFilePaths.size() <= Maximum_Temp_File_Count) {
+					sortInputFiles(pendingInputs, tempSplitDirectoryPath, duplicates);
+				} else if (!pendingInputs.isEmpty()) {
+					splitAndSort(pendingInputs, tempSplitDirectoryPath, duplicates);
+				}
+				List<Path> runs = manifest.sortedFiles(List.of());
+				mergeSortedFiles(runs, runs, tempSplitDirectoryPath, outputFileDirectory, duplicates);
+			} else {
+				generateOrSortRuns(inputFilePaths, tempSplitDirectoryPath, duplicates);
 				mergeSortedFiles(tempSplitDirectoryPath, outputFileDirectory, removeDiplicates);
-			}else {
-				mergeSortedFiles(inputDirectoryPath, outputFileDirectory, removeDiplicates);
 			}
+			completed = true;
 		} catch (Exception e) {
 			throw new Exception(e.getMessage());
 		} finally {
-			cleanUp(tempDirectoryPath, tempSplitDirectoryPath);
+			if (manifest != null) {
+				manifest.close();
+				manifest = null;
+			}
+			if (completed || !resumable) {
+				cleanUp(tempDirectoryPath, tempSplitDirectoryPath);
+			}
+			metrics.finish(completed);
+			reportMetrics(completed);
+		}
+	}
+
+	/**
+	 * Tell the listener the job is over and write the metrics file.
+	 * A metrics file that cannot be written fails a completed job. A job that already failed keeps its own error.
+	 * @param completed - false if the job failed
+	 * @throws IOException - if the metrics file of a completed job cannot be written
+	 */
+	private void reportMetrics(boolean completed) throws IOException {
+		if (sortListener != null) {
+			sortListener.jobCompleted(metrics);
+		}
+		if (metricsFile != null) {
+			try {
+				Files.writeString(Path.of(metricsFile), metrics.toJson());
+			} catch (IOException e) {
+				if (completed) {
+					throw new IOException("Error while writing metrics to " + metricsFile, e);
+				}
+			}
+		}
+	}
+
+	private boolean enterPhase(SortPhase phase) {
+		if (!metrics.enterPhase(phase)) {
+			return false;
+		}
+		if (sortListener != null) {
+			sortListener.phaseStarted(phase, metrics);
+		}
+		return true;
+	}
+
+	private void exitPhase(SortPhase phase, boolean entered) {
+		if (!entered) {
+			return;
+		}
+		metrics.exitPhase(phase);
+		if (sortListener != null) {
+			sortListener.phaseCompleted(phase, metrics);
+		}
+	}
+
+	private void reportProgress() {
+		if (sortListener != null) {
+			sortListener.progress(metrics);
+		}
+	}
+
+	private static long totalSize(List<Path> filePaths) throws IOException {
+		long size = 0L;
+		for (Path filePath : filePaths) {
+			size += Files.size(filePath);
+		}
+		return size;
+	}
+
+	/**
+	 * Sort the lines of a stream into a channel, without staging the input in a directory.
+	 * The sorted temporary files are written into a directory of their own created inside the temporary directory,
+	 * which is deleted when the job is over. Partitioned merges and resumable jobs do not apply to streams.
+	 * @param reader - Lines to sort, closed once read
+	 * @param bytesRead - Bytes read from the stream so far
+	 * @param tempDirectoryPath - Directory inside which the temporary files are written
+	 * @param output - Channel receiving the sorted lines, closed at the end
+	 * @param removeDiplicates - Flag to remove duplicates
+	 * @throws IOException
+	 */
+	void sortStream(LineReader reader, LongSupplier bytesRead, Path tempDirectoryPath, WritableByteChannel output,
+			boolean removeDiplicates) throws IOException {
+		Duplicates duplicates = duplicates(removeDiplicates);
+		boolean completed = false;
+		metrics.start();
+		readAheadStatistics.reset();
+		Path jobDirectory = null;
+		try (LineReader input = reader; WritableByteChannel channel = output) {
+			Files.createDirectories(tempDirectoryPath);
+			jobDirectory = Files.createTempDirectory(tempDirectoryPath, "sort");
+			String tempSplitDirectoryPath = jobDirectory.toString();
+			splitAndSort(input, bytesRead, tempSplitDirectoryPath, duplicates);
+			List<Path> runs;
+			try (Stream<Path> paths = Files.list(jobDirectory)) {
+				runs = paths.sorted().collect(Collectors.toList());
+			}
+			List<Path> finalFilePaths = mergePasses(runs, runs, tempSplitDirectoryPath, duplicates);
+			boolean entered = enterPhase(SortPhase.FINAL_MERGE);
+			try {
+				OutputSink sink = new OutputSink(channel, writeBufferSize, false);
+				mergeRuns(finalFilePaths.size(), run -> openRunReader(finalFilePaths.get(run)), lineWriter(sink, duplicates));
+				sink.flush();
+				metrics.addOutput(sink.getBytesWritten());
+			} finally {
+				exitPhase(SortPhase.FINAL_MERGE, entered);
+			}
+			completed = true;
+		} finally {
+			if (jobDirectory != null) {
+				cleanUp(jobDirectory.toString(), jobDirectory.toString());
+			}
+			metrics.finish(completed);
+			reportMetrics(completed);
+		}
+	}
+
+	private void generateOrSortRuns(List<Path> inputFilePaths, String tempSplitDirectoryPath, Duplicates duplicates)
+			throws Exception {
+		if (inputFilePaths.size() > Maximum_Temp_File_Count) {
+			generateRuns(inputFilePaths, tempSplitDirectoryPath, duplicates);
+		} else {
+			sortInputFiles(inputFilePaths, tempSplitDirectoryPath, duplicates);
+		}
+	}
+
+	/**
+	 * Fingerprint of a job: the input files with their size and modification time, and every setting that changes
+	 * the content of the sorted temporary files. A resumed job must have the same fingerprint.
+	 */
+	private String jobFingerprint(List<Path> inputFilePaths, Duplicates duplicates) throws IOException {
+		StringBuilder job = new StringBuilder();
+		job.append(duplicates).append('|').append(byteMode).append('|').append(presortedInputs).append('|')
+				.append(sortSpec == null ? "" : sortSpec.toString()).append('|')
+				.append(runCodec == null ? "" : runCodec.fileExtension());
+		for (Path inputFilePath : inputFilePaths) {
+			job.append('\n').append(inputFilePath.toAbsolutePath()).append('|').append(Files.size(inputFilePath)).append('|')
+					.append(Files.getLastModifiedTime(inputFilePath).toMillis());
+		}
+		try {
+			return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(job.toString().getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-256 is not available", e);
 		}
 	}
 
 	/**
-	 * Delete the Output file if present inside the output file Directory
+	 * Delete a half written Output file left inside the output file Directory by an earlier failed job.
+	 * The Output file itself is only replaced once the new one is complete.
 	 * @param outputFileDirectory
 	 * @throws IOException
 	 */
 	private void mergeAndSortFilesSetup(String outputFileDirectory) throws IOException {
-		Files.deleteIfExists(Paths.get(outputFileDirectory + "/output.dat"));
+		Files.deleteIfExists(partialFile(Paths.get(outputFileDirectory, OUTPUT_FILE_NAME)));
 	}
 
 	/**
-	 * If Number of Files in the input directory is greater than Maximum_Temp_File_Count. Merge files
-	 * into 1 file.
+	 * Merge files into 1 file.
+	 * mergeAndSortFiles no longer needs this copy, as generateRuns reads the input files directly.
 	 * @param inputFilePaths - Paths of files inside the input directory.
 	 * @param tempDirectoryPath - Directory Path to where the temporary merged file will be stored.
 	 * @return Temporary_merged_file path.
@@ -96,8 +610,9 @@ public class FileMergeSort {
 	 * Maximum number of temporary files should be less than Maximum_Temp_File_Count.
 	 * Estimate the size of file after split.
 	 * Add string from the Temporary_merged_file to a list until the size of the list = estimated file size
-	 * Sort the list and create a temporary file containing this block of sorted words and save 
-	 * it to the Temporary directory
+	 * The full block is handed to a pool of sorting threads, which sort it and create a temporary file
+	 * containing this block of sorted words in the Temporary directory while the next block is read.
+	 * At most maxBlocksInFlight blocks wait for the sorting threads, so memory use stays bounded.
 	 * 
 	 * @param tempMergedUnsortedFile - Temporary merged File Path
 	 * @param tempSplitDirectoryPath - Temporary Directory path to where temporary files after split must be saved.
@@ -108,120 +623,1135 @@ public class FileMergeSort {
 		File intermediateMergedFile = new File(tempMergedUnsortedFile);
 		long sizeOfMergedFile = intermediateMergedFile.length();
 		if (sizeOfMergedFile > 0) {
-			long individualTempFileSize = determineTemporaryFileSize(sizeOfMergedFile);
-			BufferedReader br = new BufferedReader(new FileReader(Paths.get(tempMergedUnsortedFile).toFile()));
-			try {
-				Long currentTempFileSize = 0L;
-				List<String> block = new ArrayList<>();
-				String line = "";
-				while ((line = br.readLine()) != null) {
-					if (currentTempFileSize < individualTempFileSize) {
-						block.add(line);
-						currentTempFileSize = currentTempFileSize + line.getBytes(StandardCharsets.UTF_8).length;
-					} else {
-						if (!block.isEmpty()) {
-							writeToTempFile(block, tempSplitDirectoryPath);
-							block.clear();
-							block.add(line);
-							currentTempFileSize = 0L;
+			splitAndSort(List.of(intermediateMergedFile.toPath()), tempSplitDirectoryPath, Duplicates.KEEP);
+		} else {
+			throw new Exception("Empty Files - unable to merge");
+		}
+	}
+
+	/**
+	 * Generate sorted temporary files straight from the input files, without first copying them
+	 * into a Temporary_merged_file.
+	 * The input files are read one after another as if they were a single file and split into
+	 * sorted blocks exactly like splitAndSort.
+	 * 
+	 * @param inputFilePaths - Paths of files inside the input directory.
+	 * @param tempSplitDirectoryPath - Temporary Directory path to where temporary files after split must be saved.
+	 * @throws Exception - if input directory is empty throws Exception ("No input Files Found"), and if all
+	 * the input files are empty throws Exception ("Empty Files - unable to merge")
+	 */
+	public void generateRuns(List<Path> inputFilePaths, String tempSplitDirectoryPath) throws Exception {
+		generateRuns(inputFilePaths, tempSplitDirectoryPath, Duplicates.KEEP);
+	}
+
+	private void generateRuns(List<Path> inputFilePaths, String tempSplitDirectoryPath, Duplicates duplicates)
+			throws Exception {
+		if (inputFilePaths.isEmpty()) {
+			throw new Exception("No input Files Found");
+		}
+		if (totalSize(inputFilePaths) > 0) {
+			splitAndSort(inputFilePaths, tempSplitDirectoryPath, duplicates);
+		} else {
+			throw new Exception("Empty Files - unable to merge");
+		}
+	}
+
+	/**
+	 * Sort every input file into its own sorted temporary file.
+	 * Files whose lines fit a block of their share of the memory budget are read and sorted in memory, several
+	 * at a time on the sorting threads. Larger files are split into sorted blocks one after another, like splitAndSort.
+	 * Empty input files produce no temporary file.
+	 * 
+	 * @param inputFilePaths - Paths of files inside the input directory.
+	 * @param tempSplitDirectoryPath - Temporary Directory path to where the sorted temporary files must be saved.
+	 * @throws IOException
+	 */
+	public void sortInputFiles(List<Path> inputFilePaths, String tempSplitDirectoryPath) throws IOException {
+		sortInputFiles(inputFilePaths, tempSplitDirectoryPath, Duplicates.KEEP);
+	}
+
+	private void sortInputFiles(List<Path> inputFilePaths, String tempSplitDirectoryPath, Duplicates duplicates)
+			throws IOException {
+		Files.createDirectories(Path.of(tempSplitDirectoryPath));
+		int filesInFlight = parallelism > 1 ? effectiveBlocksInFlight() : 0;
+		long blockMemory = determineBlockMemory(Math.max(1, filesInFlight));
+		Queue<Path> largeFilePaths = new ConcurrentLinkedQueue<>();
+		boolean entered = enterPhase(SortPhase.RUN_GENERATION);
+		try {
+			try (BoundedExecutor sorters = new BoundedExecutor(parallelism, filesInFlight)) {
+				for (Path inputFilePath : inputFilePaths) {
+					long fileSize = Files.size(inputFilePath);
+					if (fileSize == 0) {
+						if (manifest != null) {
+							manifest.commit(List.of(), List.of(inputFilePath));
 						}
+						continue;
 					}
+					if (fileSize > blockMemory) {
+						largeFilePaths.add(inputFilePath);
+						continue;
+					}
+					sorters.submit(() -> {
+						RecordBlock block = newBlock(blockMemory);
+						if (readWholeFile(inputFilePath, block)) {
+							metrics.addInput(fileSize, block.size());
+							Path run = writeToTempFile(block, tempSplitDirectoryPath, duplicates);
+							if (manifest != null) {
+								manifest.commit(List.of(run), List.of(inputFilePath));
+							}
+						} else {
+							largeFilePaths.add(inputFilePath);
+						}
+					});
 				}
-				if (!block.isEmpty()) {
-					writeToTempFile(block, tempSplitDirectoryPath);
-				}
+				sorters.awaitCompletion();
+				metrics.addQueueWait(sorters.getWaitNanos());
 			} catch (IOException e) {
 				throw new IOException("Error while writing to temporary files");
-			} finally {
-				br.close();
 			}
-		} else {
-			throw new Exception("Empty Files - unable to merge");
+			for (Path largeFilePath : largeFilePaths) {
+				splitAndSort(List.of(largeFilePath), tempSplitDirectoryPath, duplicates);
+			}
+		} finally {
+			exitPhase(SortPhase.RUN_GENERATION, entered);
 		}
 	}
-	
+
 	/**
-	 * Estimate the size_of_files(in Bytes) after Temporary_merged_files is split
-	 * If the estimated size_of_files is less than half of the Free memory size(in Bytes). Increase the size of file to be equal to (Free Memory size / 2)
-	 * @param sizeOfMergedFile - Size of Temporary_Merged_File
-	 * @return Long - Estimated File size
+	 * Read the given files in order, cut their lines into blocks of their share of the memory budget and
+	 * write every block as a sorted temporary file.
+	 * At most maxBlocksInFlight + 1 blocks are ever allocated; a block is reused once its sorted temporary file is written.
+	 * With the REPLACEMENT_SELECTION strategy the lines are streamed through a heap instead of being cut into blocks.
+	 * For a resumable job, the block is cut at the end of an input file once the input read since the last checkpoint
+	 * reaches the memory budget, and the temporary files written so far are committed with the files read.
+	 * @param inputFilePaths - Files to read
+	 * @param tempSplitDirectoryPath - Temporary Directory path to where temporary files after split must be saved.
+	 * @param duplicates - Keep, drop or count equal lines of each temporary file
+	 * @throws IOException
 	 */
-	private long determineTemporaryFileSize(long sizeOfMergedFile) {
-		long tempFileSize = (sizeOfMergedFile / Maximum_Temp_File_Count) + (sizeOfMergedFile % Maximum_Temp_File_Count == 0 ? 0 : 1);
-		long availableMemory = Runtime.getRuntime().freeMemory();
-		if (tempFileSize < availableMemory / 2)
-			tempFileSize = availableMemory / 2;
-		return tempFileSize;
+	private void splitAndSort(List<Path> inputFilePaths, String tempSplitDirectoryPath, Duplicates duplicates)
+			throws IOException {
+		if (runStrategy == RunStrategy.REPLACEMENT_SELECTION) {
+			replacementSelection(inputFilePaths, tempSplitDirectoryPath, duplicates);
+			return;
+		}
+		Files.createDirectories(Path.of(tempSplitDirectoryPath));
+		List<Path> readInputs = new ArrayList<>();
+		long readSinceCheckpoint = 0L;
+		boolean entered = enterPhase(SortPhase.RUN_GENERATION);
+		try (RunBlocks blocks = new RunBlocks(tempSplitDirectoryPath, duplicates)) {
+			for (Path inputFilePath : inputFilePaths) {
+				try (LineReader reader = openLineReader(inputFilePath)) {
+					metrics.addInput(Files.size(inputFilePath), blocks.read(reader));
+				}
+				if (manifest == null) {
+					continue;
+				}
+				readInputs.add(inputFilePath);
+				readSinceCheckpoint += Files.size(inputFilePath);
+				if (readSinceCheckpoint >= effectiveMemoryBudget()) {
+					blocks.writeAll();
+					manifest.commit(blocks.takeWrittenRuns(), readInputs);
+					readInputs.clear();
+					readSinceCheckpoint = 0L;
+				}
+			}
+			blocks.finish();
+			if (manifest != null) {
+				manifest.commit(blocks.takeWrittenRuns(), readInputs);
+			}
+		} catch (IOException e) {
+			throw new IOException("Error while writing to temporary files");
+		} finally {
+			exitPhase(SortPhase.RUN_GENERATION, entered);
+		}
 	}
 
 	/**
-	 * Sort and Merge the temporary files using K-Way merge sort.
-	 * Stream for each file is created and added into a Priority Queue
-	 * The priority queue is Custom Sorted based on the latest line read from each of the file.
-	 * The first element in the queue will be the smallest and hence added to the list.
-	 * Once the List has 500 elements, it is written to the Output file
-	 * This is repeated until End of File in each file
-	 * 
-	 * @param tempSplitDirectoryPath - Temporary Directory path to where temporary files after split is saved.
-	 * @param outputFileDirectory - Directory where the Output file is to be created 
-	 * @param removeDiplicates 
+	 * Split the lines of a single stream into sorted temporary files, like splitAndSort.
+	 * @param reader - Lines of the stream
+	 * @param bytesRead - Bytes read from the stream so far
+	 * @param tempSplitDirectoryPath - Temporary Directory path to where temporary files after split must be saved.
+	 * @param duplicates - Keep, drop or count equal lines of each temporary file
 	 * @throws IOException
 	 */
-	public void mergeSortedFiles(String tempSplitDirectoryPath, String outputFileDirectory, boolean removeDiplicates)
-			throws IOException{
-		List<Path> filePaths = new ArrayList<>();
-		try (Stream<Path> paths = Files.walk(Paths.get(tempSplitDirectoryPath))) {
-			filePaths = paths.filter(Files::isRegularFile).collect(Collectors.toList());
-		} catch (IOException e) {
-			throw new IOException("Error while getting temporary file paths");
+	private void splitAndSort(LineReader reader, LongSupplier bytesRead, String tempSplitDirectoryPath,
+			Duplicates duplicates) throws IOException {
+		InputReaders input = consumer -> {
+			long records = consumer.read(reader);
+			metrics.addInput(bytesRead.getAsLong(), records);
+		};
+		if (runStrategy == RunStrategy.REPLACEMENT_SELECTION) {
+			replacementSelection(input, tempSplitDirectoryPath, duplicates);
+			return;
 		}
-		PriorityQueue<SortedFileStreamer> mergeQueque = new PriorityQueue<>(
-				(s1, s2) -> s1.getLine().compareTo(s2.getLine()));
-		for (Path path : filePaths) {
-			SortedFileStreamer fileStreamer = new SortedFileStreamer(path);
-			mergeQueque.add(fileStreamer);
-		}
-		List<String> ans = new ArrayList<>();
-		SortedFileStreamer line = mergeQueque.poll();
-		String lastWord = null;
-		while (line != null) {
-			if (line.getLine() != null) {
-				if (ans.size() < 500)
-					ans.add(line.nextLine());
-				else {
-					lastWord = writeToFile(ans, outputFileDirectory, removeDiplicates, lastWord);
-					ans = new ArrayList<>();
+		Files.createDirectories(Path.of(tempSplitDirectoryPath));
+		boolean entered = enterPhase(SortPhase.RUN_GENERATION);
+		try (RunBlocks blocks = new RunBlocks(tempSplitDirectoryPath, duplicates)) {
+			input.forEach(blocks::read);
+			blocks.finish();
+		} finally {
+			exitPhase(SortPhase.RUN_GENERATION, entered);
+		}
+	}
+
+	/**
+	 * Read the given files in order and write their lines as sorted temporary files using replacement selection,
+	 * with the whole memory budget for the heap. Lines are held as Strings, or as copies of their raw bytes
+	 * in byte mode, with the same footprint estimate as the blocks.
+	 * Runs span the input files, so a resumable job commits them all at once when the last one is written.
+	 * @param inputFilePaths - Files to read
+	 * @param tempSplitDirectoryPath - Temporary Directory path to where temporary files after split must be saved.
+	 * @param duplicates - Keep, drop or count equal lines of each temporary file
+	 * @throws IOException
+	 */
+	private void replacementSelection(List<Path> inputFilePaths, String tempSplitDirectoryPath, Duplicates duplicates)
+			throws IOException {
+		InputReaders input = consumer -> {
+			for (Path inputFilePath : inputFilePaths) {
+				long records;
+				try (LineReader reader = openLineReader(inputFilePath)) {
+					records = consumer.read(reader);
 				}
-				if (line.getLine() != null)
-					mergeQueque.add(line);
+				metrics.addInput(Files.size(inputFilePath), records);
+			}
+		};
+		List<Path> writtenRuns = replacementSelection(input, tempSplitDirectoryPath, duplicates);
+		if (manifest != null) {
+			try {
+				manifest.commit(writtenRuns, inputFilePaths);
+			} catch (IOException e) {
+				throw new IOException("Error while writing to temporary files");
 			}
-			line = mergeQueque.poll();
 		}
-		writeToFile(ans, outputFileDirectory, removeDiplicates, lastWord);
 	}
 
 	/**
-	 * 
-	 * @param ans - List containing a sorted words to be written to the output file
-	 * @param outputFileDirectory - Directory where output file will be save
-	 * @param lastWord - last word from current list, saved to check for duplicate in the upcoming list
-	 * @param removeDiplicates - Flag to remove duplicates
-	 * @throws IOException
+	 * @param input - Inputs to read, one after another
+	 * @return Paths of the temporary files written
 	 */
-	private String writeToFile(List<String> ans, String outputFileDirectory, boolean removeDuplicates, String lastWord) throws IOException {
-		if(removeDuplicates) {
-			List<String> distinctWords = ans.stream().distinct()
-					.filter(word ->!word.equals(lastWord)).collect(Collectors.toList());
-			Files.write(Paths.get(outputFileDirectory + "/output.dat"), distinctWords
-					, StandardOpenOption.CREATE,
-					StandardOpenOption.APPEND);
-			return distinctWords.getLast();
-		}else {
-			Files.write(Paths.get(outputFileDirectory + "/output.dat"), ans
-					, StandardOpenOption.CREATE,
-					StandardOpenOption.APPEND);
-			return null;
-			
+	private List<Path> replacementSelection(InputReaders input, String tempSplitDirectoryPath, Duplicates duplicates)
+			throws IOException {
+		Files.createDirectories(Path.of(tempSplitDirectoryPath));
+		long memory = Math.max(0L, effectiveMemoryBudget() - runWriteMemory());
+		boolean counted = duplicates == Duplicates.COUNT;
+		boolean combineDuplicates = duplicates != Duplicates.KEEP;
+		List<Path> writtenRuns = new ArrayList<>();
+		ReplacementSelection.RunOpener runOpener = () -> {
+			Path run = Files.createTempFile(Paths.get(tempSplitDirectoryPath), "temp", runFileSuffix(duplicates));
+			writtenRuns.add(run);
+			reportProgress();
+			return openRunOutput(run);
+		};
+		boolean entered = enterPhase(SortPhase.RUN_GENERATION);
+		try {
+			if (sortSpec != null) {
+				ReplacementSelection<KeyedLine> selection = new ReplacementSelection<>((a, b) -> sortSpec.compare(a.bytes(), 0,
+						a.bytes().length, a.keys(), 0, b.bytes(), 0, b.bytes().length, b.keys(), 0), memory,
+						(output, line, count) -> writeLine(output, line.bytes(), counted, count), runOpener, combineDuplicates);
+				feedReplacementSelection(input, selection, reader -> {
+					byte[] bytes = Arrays.copyOfRange(reader.array(), reader.offset(), reader.offset() + reader.length());
+					long[] keys = new long[sortSpec.keyCount()];
+					sortSpec.extract(bytes, 0, bytes.length, keys, 0);
+					return new KeyedLine(bytes, keys);
+				}, (line, encodedLength) -> (int) KeyedLine.estimate(line));
+			} else if (byteMode) {
+				ReplacementSelection<byte[]> selection = new ReplacementSelection<>(Arrays::compareUnsigned, memory,
+						(output, line, count) -> writeLine(output, line, counted, count), runOpener, combineDuplicates);
+				feedReplacementSelection(input, selection,
+						reader -> Arrays.copyOfRange(reader.array(), reader.offset(), reader.offset() + reader.length()),
+						(line, encodedLength) -> (int) ByteRecordBlock.estimate(encodedLength));
+			} else {
+				ReplacementSelection<String> selection = new ReplacementSelection<>(String::compareTo, memory,
+						(output, line, count) -> {
+							if (counted) {
+								output.write(line, count);
+							} else {
+								output.write(line);
+							}
+						}, runOpener, combineDuplicates);
+				feedReplacementSelection(input, selection,
+						reader -> new String(reader.array(), reader.offset(), reader.length(), StandardCharsets.UTF_8),
+						(line, encodedLength) -> (int) StringRecordBlock.estimate(line, encodedLength));
+			}
+			for (Path run : writtenRuns) {
+				metrics.addRun(Files.size(run));
+			}
+			return writtenRuns;
+		} catch (IOException e) {
+			throw new IOException("Error while writing to temporary files");
+		} finally {
+			exitPhase(SortPhase.RUN_GENERATION, entered);
+		}
+	}
+
+	/**
+	 * Line of the input held by replacement selection with the keys extracted for the SortSpec.
+	 */
+	private record KeyedLine(byte[] bytes, long[] keys) {
+
+		/**
+		 * Estimated heap of the line: its bytes as ByteRecordBlock estimates them, the record and the keys.
+		 */
+		static long estimate(KeyedLine line) {
+			return ByteRecordBlock.estimate(line.bytes().length) + 16 + 16 + 8L * line.keys().length;
+		}
+	}
+
+	/**
+	 * Turns the current line of a reader into the type of line held by replacement selection.
+	 */
+	private interface LineDecoder<T> {
+		T decode(LineReader reader);
+	}
+
+	/**
+	 * Estimated heap of a decoded line, given the length of the line as read.
+	 */
+	private interface LineFootprint<T> {
+		int estimate(T line, int encodedLength);
+	}
+
+	/**
+	 * Inputs of run generation, files or a stream, read one after another.
+	 */
+	private interface InputReaders {
+
+		/**
+		 * Pass a reader of every input in turn to the consumer, and count the input it read.
+		 */
+		void forEach(InputConsumer consumer) throws IOException;
+	}
+
+	/**
+	 * Reads every line of an input.
+	 */
+	private interface InputConsumer {
+
+		/**
+		 * @return Number of lines read
+		 */
+		long read(LineReader reader) throws IOException;
+	}
+
+	/**
+	 * Feed every line of the inputs to replacement selection, then write out the lines still held.
+	 */
+	private <T> void feedReplacementSelection(InputReaders input, ReplacementSelection<T> selection,
+			LineDecoder<T> decoder, LineFootprint<T> footprint) throws IOException {
+		input.forEach(reader -> {
+			long records = 0L;
+			while (reader.next()) {
+				T line = decoder.decode(reader);
+				selection.add(line, footprint.estimate(line, reader.length()));
+				records++;
+			}
+			return records;
+		});
+		selection.finish();
+	}
+
+	private static void writeLine(OutputSink output, byte[] line, boolean counted, long count) throws IOException {
+		if (counted) {
+			output.write(line, 0, line.length, count);
+		} else {
+			output.write(line, 0, line.length);
+		}
+	}
+
+	/**
+	 * Blocks of run generation. Lines are added to the current block, and every full block is handed to the sorting
+	 * threads, which sort it and write it as a temporary file while the next block is filled.
+	 * At most maxBlocksInFlight + 1 blocks are ever allocated; a block is reused once its sorted temporary file is written.
+	 */
+	private class RunBlocks implements AutoCloseable {
+		private final String tempSplitDirectoryPath;
+		private final Duplicates duplicates;
+		private final int maxBlocks;
+		private final long blockMemory;
+		private final BoundedExecutor sorters;
+		private final BlockingQueue<RecordBlock> freeBlocks;
+		private final List<Path> writtenRuns = Collections.synchronizedList(new ArrayList<>());
+		private int allocatedBlocks = 1;
+		private RecordBlock block;
+
+		RunBlocks(String tempSplitDirectoryPath, Duplicates duplicates) {
+			this.tempSplitDirectoryPath = tempSplitDirectoryPath;
+			this.duplicates = duplicates;
+			int blocksInFlight = parallelism > 1 ? effectiveBlocksInFlight() : 0;
+			maxBlocks = blocksInFlight + 1;
+			blockMemory = determineBlockMemory(maxBlocks);
+			sorters = new BoundedExecutor(parallelism, blocksInFlight);
+			freeBlocks = new ArrayBlockingQueue<>(maxBlocks);
+			block = newBlock(blockMemory);
+		}
+
+		/**
+		 * Add every line of the reader.
+		 * @return Number of lines read
+		 */
+		long read(LineReader reader) throws IOException {
+			long records = 0L;
+			while (reader.next()) {
+				records++;
+				if (!block.add(reader.array(), reader.offset(), reader.length())) {
+					submit();
+					block = takeBlock();
+					block.add(reader.array(), reader.offset(), reader.length());
+				}
+			}
+			return records;
+		}
+
+		/**
+		 * Cut the current block and wait until every temporary file is written, to carry on with an empty block.
+		 */
+		void writeAll() throws IOException {
+			if (!block.isEmpty()) {
+				submit();
+				block = takeBlock();
+			}
+			sorters.awaitCompletion();
+		}
+
+		/**
+		 * Write the last block and wait until every temporary file is written.
+		 */
+		void finish() throws IOException {
+			if (!block.isEmpty()) {
+				submit();
+			}
+			sorters.awaitCompletion();
+		}
+
+		/**
+		 * @return Paths of the temporary files written since the last call
+		 */
+		List<Path> takeWrittenRuns() {
+			synchronized (writtenRuns) {
+				List<Path> runs = List.copyOf(writtenRuns);
+				writtenRuns.clear();
+				return runs;
+			}
+		}
+
+		/**
+		 * Hand the full block to the sorting threads, waiting if too many blocks are already pending,
+		 * and give it back to freeBlocks once it is written.
+		 */
+		private void submit() throws IOException {
+			RecordBlock full = block;
+			sorters.submit(() -> {
+				writtenRuns.add(writeToTempFile(full, tempSplitDirectoryPath, duplicates));
+				full.clear();
+				freeBlocks.offer(full);
+			});
+		}
+
+		/**
+		 * Reuse a block whose temporary file is written, or allocate a new one while fewer than maxBlocks exist.
+		 */
+		private RecordBlock takeBlock() throws IOException {
+			RecordBlock free = freeBlocks.poll();
+			if (free != null) {
+				return free;
+			}
+			if (allocatedBlocks < maxBlocks) {
+				allocatedBlocks++;
+				return newBlock(blockMemory);
+			}
+			long waitStart = System.nanoTime();
+			try {
+				free = freeBlocks.take();
+				metrics.addQueueWait(System.nanoTime() - waitStart);
+				return free;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for a free block");
+			}
+		}
+
+		@Override
+		public void close() {
+			metrics.addQueueWait(sorters.getWaitNanos());
+			sorters.close();
+		}
+	}
+
+	/**
+	 * Empty block of Strings, or of raw bytes in byte mode or with a SortSpec.
+	 */
+	private RecordBlock newBlock(long blockMemory) {
+		if (sortSpec != null) {
+			return new ByteRecordBlock(blockMemory, sortSpec);
+		}
+		return byteMode ? new ByteRecordBlock(blockMemory) : new StringRecordBlock(blockMemory);
+	}
+
+	/**
+	 * Read a whole file into a block.
+	 * @return false if the file does not fit the block
+	 */
+	private boolean readWholeFile(Path inputFilePath, RecordBlock block) throws IOException {
+		try (LineReader reader = openLineReader(inputFilePath)) {
+			while (reader.next()) {
+				if (!block.add(reader.array(), reader.offset(), reader.length())) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Open a file for reading line by line, through memory mapped windows if enabled.
+	 */
+	private LineReader openLineReader(Path filePath) throws IOException {
+		if (memoryMappedReads) {
+			return new StreamLineReader(new MappedInputStream(filePath, mappedWindowSize, sequentialReadHint), readBufferSize);
+		}
+		return new StreamLineReader(filePath, readBufferSize);
+	}
+
+	/**
+	 * Open a sorted file for the merge, decompressing it if its name carries the extension of the run codec and
+	 * parsing the counts of its lines if it is a temporary file of counted lines.
+	 */
+	private LineReader openRunReader(Path runPath) throws IOException {
+		LineReader reader = openPlainRunReader(runPath);
+		return isCounted(runPath) ? new CountedLineReader(reader) : reader;
+	}
+
+	private LineReader openPlainRunReader(Path runPath) throws IOException {
+		if (runCodec != null && runPath.toString().endsWith(runCodec.fileExtension())) {
+			InputStream in = memoryMappedReads ? new MappedInputStream(runPath, mappedWindowSize, sequentialReadHint)
+					: new BufferedInputStream(Files.newInputStream(runPath), readBufferSize);
+			return new StreamLineReader(new CompressedRunInputStream(in, runCodec), readBufferSize);
+		}
+		if (readAhead && !memoryMappedReads) {
+			InputStream in = new ReadAheadInputStream(Files.newInputStream(runPath), readBufferSize, readAheadStatistics);
+			return new StreamLineReader(in, readAheadLineBufferSize());
+		}
+		return openLineReader(runPath);
+	}
+
+	/**
+	 * Open a temporary file for writing, compressed with the run codec if one is set and checksummed for the manifest
+	 * of a resumable job.
+	 */
+	private OutputSink openRunOutput(Path runPath) throws IOException {
+		FileChannel fileChannel = FileChannel.open(runPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		WritableByteChannel channel = manifest != null ? manifest.checksummed(runPath, fileChannel) : fileChannel;
+		if (runCodec != null) {
+			channel = new CompressedRunChannel(channel, runCodec, CompressedRunChannel.DEFAULT_BLOCK_SIZE);
+		}
+		return new OutputSink(channel, takeRunWriteBuffer(), false, runWriteBuffers::offer);
+	}
+
+	/**
+	 * Write buffer of a temporary file, reused from a file written before: at most one buffer is allocated for
+	 * every thread writing temporary files at once.
+	 */
+	private ByteBuffer takeRunWriteBuffer() {
+		ByteBuffer buffer;
+		while ((buffer = runWriteBuffers.poll()) != null) {
+			if (buffer.capacity() == Math.max(writeBufferSize, 1024)) {
+				return buffer;
+			}
+		}
+		return OutputSink.allocate(writeBufferSize);
+	}
+
+	/**
+	 * Open a byte range of a plain sorted file, read ahead if enabled.
+	 */
+	private LineReader openRunRegionReader(Path runPath, long start, long end, int bufferSize) throws IOException {
+		InputStream in = new FileRegionInputStream(runPath, start, end);
+		LineReader reader = readAhead ? new StreamLineReader(new ReadAheadInputStream(in, bufferSize, readAheadStatistics),
+				Math.min(bufferSize, 64 * 1024)) : new StreamLineReader(in, bufferSize);
+		return isCounted(runPath) ? new CountedLineReader(reader) : reader;
+	}
+
+	/**
+	 * Lines are cut from the read-ahead buffers through a smaller buffer of their own.
+	 */
+	private int readAheadLineBufferSize() {
+		return Math.min(readBufferSize, 64 * 1024);
+	}
+
+	/**
+	 * Suffix of temporary files, marking files of counted lines and compressed files.
+	 */
+	private String runFileSuffix(Duplicates duplicates) {
+		String suffix = duplicates == Duplicates.COUNT ? COUNTED_RUN_SUFFIX + ".dat" : ".dat";
+		return runCodec == null ? suffix : suffix + runCodec.fileExtension();
+	}
+
+	private static boolean isCounted(Path runPath) {
+		return runPath.getFileName().toString().contains(COUNTED_RUN_SUFFIX + ".dat");
+	}
+
+	private Duplicates duplicates(boolean removeDiplicates) {
+		if (countDuplicates) {
+			return Duplicates.COUNT;
+		}
+		return removeDiplicates ? Duplicates.REMOVE : Duplicates.KEEP;
+	}
+
+	private int effectiveBlocksInFlight() {
+		return maxBlocksInFlight > 0 ? maxBlocksInFlight : parallelism;
+	}
+
+	/**
+	 * Memory budget in bytes, set explicitly or as a percentage of the maximum heap.
+	 */
+	private long effectiveMemoryBudget() {
+		if (memoryBudget > 0) {
+			return memoryBudget;
+		}
+		return Runtime.getRuntime().maxMemory() / 100 * memoryBudgetPercent;
+	}
+	
+	/**
+	 * Memory for each block during run generation: the memory budget left by the buffers of the threads writing
+	 * temporary files, shared equally between the blocks held in memory at once. Blocks track their own heap use
+	 * and never grow beyond this share, but always hold at least one line.
+	 * @param blocksInMemory - Number of blocks held in memory at the same time
+	 * @return Long - Memory of each block in bytes
+	 */
+	private long determineBlockMemory(int blocksInMemory) {
+		return Math.max(0L, effectiveMemoryBudget() - parallelism * runWriteMemory()) / blocksInMemory;
+	}
+
+	/**
+	 * Memory of the buffers writing one temporary file: the write buffer and, with a run codec, the blocks being
+	 * compressed.
+	 */
+	private long runWriteMemory() {
+		return Math.max(writeBufferSize, 1024)
+				+ (runCodec == null ? 0L : CompressedRunChannel.bufferMemory(runCodec, CompressedRunChannel.DEFAULT_BLOCK_SIZE));
+	}
+
+	/**
+	 * Sort and Merge the temporary files using K-Way merge sort.
+	 * Stream for each file is created and added into a Loser Tree
+	 * The tree is ordered on the latest line read from each of the file.
+	 * The winner of the tree will be the smallest and hence written to the Output file through a large buffer.
+	 * When removing duplicates, a line equal to the previously written line is skipped.
+	 * This is repeated until End of File in each file
+	 * If there are more files than the fan-in, intermediate merge passes first write their merged files
+	 * into the same directory, deleting every file of the directory once a pass has merged it.
+	 * 
+	 * @param tempSplitDirectoryPath - Temporary Directory path to where temporary files after split is saved.
+	 * @param outputFileDirectory - Directory where the Output file is to be created 
+	 * @param removeDiplicates 
+	 * @throws IOException
+	 */
+	public void mergeSortedFiles(String tempSplitDirectoryPath, String outputFileDirectory, boolean removeDiplicates)
+			throws IOException{
+		List<Path> filePaths = new ArrayList<>();
+		try (Stream<Path> paths = Files.walk(Paths.get(tempSplitDirectoryPath))) {
+			filePaths = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+		} catch (IOException e) {
+			throw new IOException("Error while getting temporary file paths");
+		}
+		mergeSortedFiles(filePaths, filePaths, tempSplitDirectoryPath, outputFileDirectory, duplicates(removeDiplicates));
+	}
+
+	/**
+	 * Sort and Merge the given sorted files into the Output file.
+	 * While there are more files than the fan-in, groups of the smallest files are merged into new temporary files
+	 * (one merge pass), the last pass merging only as many as needed to leave fan-in files.
+	 * The given files are never deleted; a file created by a pass is deleted as soon as a later pass merged it.
+	 * The remaining files are merged into the Output file, in parallel key ranges with setMergePartitions,
+	 * and into one Output file per range with setPartitionedOutput.
+	 * Output files are written under a temporary name and renamed once complete, replacing the previous ones.
+	 * 
+	 * @param sortedFilePaths - Paths of the sorted files
+	 * @param tempMergeDirectoryPath - Directory where intermediate merge passes write their files
+	 * @param outputFileDirectory - Directory where the Output file is to be created 
+	 * @param removeDiplicates - Flag to remove duplicates
+	 * @throws IOException
+	 */
+	public void mergeSortedFiles(List<Path> sortedFilePaths, String tempMergeDirectoryPath, String outputFileDirectory,
+			boolean removeDiplicates) throws IOException {
+		mergeSortedFiles(sortedFilePaths, List.of(), tempMergeDirectoryPath, outputFileDirectory, duplicates(removeDiplicates));
+	}
+
+	/**
+	 * @param temporaryRuns - Sorted files of this job, deleted as soon as a merge pass merged them
+	 */
+	private void mergeSortedFiles(List<Path> sortedFilePaths, Collection<Path> temporaryRuns, String tempMergeDirectoryPath,
+			String outputFileDirectory, Duplicates duplicates) throws IOException {
+		readAheadStatistics.reset();
+		List<Path> finalFilePaths = mergePasses(sortedFilePaths, temporaryRuns, tempMergeDirectoryPath, duplicates);
+		boolean entered = enterPhase(SortPhase.FINAL_MERGE);
+		try {
+			if (partitionedOutput) {
+				deletePartitionFiles(outputFileDirectory);
+			}
+			if (mergePartitions > 1 && isSearchable(finalFilePaths)) {
+				partitionedMerge(finalFilePaths, tempMergeDirectoryPath, outputFileDirectory, duplicates);
+				return;
+			}
+			Path outputFile = partitionedOutput ? partitionFile(outputFileDirectory, 0) : Paths.get(outputFileDirectory, OUTPUT_FILE_NAME);
+			try (OutputSink output = OutputSink.create(partialFile(outputFile), writeBufferSize, syncOutput)) {
+				mergeRuns(finalFilePaths.size(), run -> openRunReader(finalFilePaths.get(run)), lineWriter(output, duplicates));
+			}
+			publish(outputFile);
+		} finally {
+			exitPhase(SortPhase.FINAL_MERGE, entered);
+		}
+	}
+
+	/**
+	 * Merge the key ranges of the sorted files in parallel.
+	 * Each range is written to its own file, which is either one of the partitioned Output files or a part
+	 * appended to output.dat once every range is merged. The size of a range in the Output file is only known
+	 * once it is merged (duplicates are dropped, line separators of the input files may differ), so the parts
+	 * are appended with FileChannel.transferTo, which copies them inside the kernel.
+	 * @throws IOException
+	 */
+	private void partitionedMerge(List<Path> runs, String tempMergeDirectoryPath, String outputFileDirectory,
+			Duplicates duplicates) throws IOException {
+		Comparator<byte[]> order;
+		if (sortSpec != null) {
+			order = sortSpec::compareLines;
+		} else if (byteMode) {
+			order = Arrays::compareUnsigned;
+		} else {
+			order = Utf16ByteOrder::compare;
+		}
+		RunPartitioner partitioner = new RunPartitioner(order, FileMergeSort::isCounted);
+		List<byte[]> splitters = partitioner.sampleSplitters(runs, mergePartitions);
+		int ranges = splitters.size() + 1;
+		long[][] offsets = new long[runs.size()][];
+		for (int run = 0; run < runs.size(); run++) {
+			offsets[run] = partitioner.rangeOffsets(runs.get(run), splitters);
+		}
+		Path[] parts = new Path[ranges];
+		if (!partitionedOutput) {
+			Files.createDirectories(Path.of(tempMergeDirectoryPath));
+		}
+		for (int range = 0; range < ranges; range++) {
+			parts[range] = partitionedOutput ? partialFile(partitionFile(outputFileDirectory, range))
+					: Files.createTempFile(Paths.get(tempMergeDirectoryPath), "part", ".dat");
+		}
+		int bufferSize = Math.max(8192, readBufferSize / mergePartitions);
+		try (BoundedExecutor mergers = new BoundedExecutor(Math.min(parallelism, ranges), ranges)) {
+			for (int range = 0; range < ranges; range++) {
+				int index = range;
+				mergers.submit(() -> {
+					try (OutputSink output = OutputSink.create(parts[index], writeBufferSize, syncOutput && partitionedOutput)) {
+						mergeRuns(runs.size(), run -> openRunRegionReader(runs.get(run), offsets[run][index],
+								offsets[run][index + 1], bufferSize), lineWriter(output, duplicates));
+					}
+				});
+			}
+			mergers.awaitCompletion();
+		}
+		if (partitionedOutput) {
+			for (int range = 0; range < ranges; range++) {
+				publish(partitionFile(outputFileDirectory, range));
+			}
+		} else {
+			appendParts(parts, Paths.get(outputFileDirectory, OUTPUT_FILE_NAME));
+		}
+	}
+
+	/**
+	 * Append the merged parts one after another into the Output file and delete them.
+	 */
+	private void appendParts(Path[] parts, Path outputFile) throws IOException {
+		try (FileChannel output = FileChannel.open(partialFile(outputFile), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (Path part : parts) {
+				try (FileChannel input = FileChannel.open(part, StandardOpenOption.READ)) {
+					long size = input.size();
+					for (long position = 0; position < size;) {
+						position += input.transferTo(position, size - position, output);
+					}
+				}
+				Files.delete(part);
+			}
+			if (syncOutput) {
+				output.force(true);
+			}
+		}
+		publish(outputFile);
+	}
+
+	/**
+	 * Temporary name an Output file is written under, next to it so that it can be renamed atomically.
+	 */
+	private static Path partialFile(Path outputFile) {
+		return outputFile.resolveSibling(outputFile.getFileName() + PARTIAL_SUFFIX);
+	}
+
+	/**
+	 * Rename a complete Output file from its temporary name to its name, replacing the previous Output file in a
+	 * single step, so readers see either the old or the new file.
+	 */
+	private void publish(Path outputFile) throws IOException {
+		try {
+			Files.move(partialFile(outputFile), outputFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(partialFile(outputFile), outputFile, StandardCopyOption.REPLACE_EXISTING);
+		}
+		metrics.addOutput(Files.size(outputFile));
+		if (syncOutput) {
+			JobManifest.forceDirectory(outputFile.toAbsolutePath().getParent());
+		}
+	}
+
+	/**
+	 * Delete the partitioned Output files of an earlier merge, which may have had more ranges.
+	 */
+	private static void deletePartitionFiles(String outputFileDirectory) throws IOException {
+		try (Stream<Path> paths = Files.list(Paths.get(outputFileDirectory))) {
+			for (Path path : paths.filter(path -> path.getFileName().toString().matches("output-\\d{5}\\.dat"))
+					.collect(Collectors.toList())) {
+				Files.delete(path);
+			}
+		}
+	}
+
+	private static Path partitionFile(String outputFileDirectory, int partition) {
+		return Paths.get(outputFileDirectory, String.format("output-%05d.dat", partition));
+	}
+
+	/**
+	 * Only plain sorted files can be binary searched for the boundaries of the key ranges.
+	 */
+	private boolean isSearchable(List<Path> runs) {
+		return runCodec == null || runs.stream().noneMatch(run -> run.toString().endsWith(runCodec.fileExtension()));
+	}
+
+	/**
+	 * Writer of merged lines, skipping a line equal to the previously written line when removing duplicates,
+	 * or adding up the counts of equal lines when counting them.
+	 */
+	private static LineSink lineWriter(OutputSink output, Duplicates duplicates) {
+		if (duplicates == Duplicates.COUNT) {
+			return new DuplicateCounter(output);
+		}
+		PreviousLine lastWord = new PreviousLine();
+		return line -> {
+			if (duplicates == Duplicates.REMOVE) {
+				if (lastWord.matches(line)) {
+					return;
+				}
+				lastWord.set(line);
+			}
+			output.write(line.array(), line.offset(), line.length());
+		};
+	}
+
+	/**
+	 * Run merge passes until at most fan-in files are left. A resumable job records every merged file.
+	 * Every pass merges the smallest files first. A pass that cannot bring the files down to the fan-in merges every
+	 * file, fan-in at a time; the last pass only merges the smallest files needed to leave exactly fan-in files
+	 * for the final merge, so the larger files are read once by the final merge instead of being rewritten.
+	 * Merged files of temporaryRuns or of an earlier pass are deleted as soon as their group is merged (and recorded
+	 * by a resumable job), so the temporary files never hold much more than the input.
+	 * @param sortedFilePaths - Paths of the sorted files
+	 * @param temporaryRuns - Those of the sorted files that belong to this job and may be deleted
+	 * @param tempMergeDirectoryPath - Directory where the merged files of each pass are written
+	 * @param duplicates - Keep, drop or count equal lines of each merged file
+	 * @return Paths of the files left for the final merge
+	 * @throws IOException
+	 */
+	private List<Path> mergePasses(List<Path> sortedFilePaths, Collection<Path> temporaryRuns, String tempMergeDirectoryPath,
+			Duplicates duplicates) throws IOException {
+		int fanIn = effectiveFanIn();
+		metrics.startMerge(fanIn, mergePassCount(sortedFilePaths.size(), fanIn));
+		List<Path> runs = sortedFilePaths;
+		if (runs.size() <= fanIn) {
+			return runs;
+		}
+		boolean entered = enterPhase(SortPhase.MERGE_PASSES);
+		try {
+			return mergePasses(runs, new HashSet<>(temporaryRuns), fanIn, tempMergeDirectoryPath, duplicates);
+		} finally {
+			exitPhase(SortPhase.MERGE_PASSES, entered);
+		}
+	}
+
+	private List<Path> mergePasses(List<Path> sortedFilePaths, Set<Path> temporaryRuns, int fanIn,
+			String tempMergeDirectoryPath, Duplicates duplicates) throws IOException {
+		List<Path> runs = sortedFilePaths;
+		while (runs.size() > fanIn) {
+			metrics.addMergePass();
+			Files.createDirectories(Path.of(tempMergeDirectoryPath));
+			runs = smallestFirst(runs);
+			List<Integer> groupSizes = new ArrayList<>();
+			long lastPassFiles = lastPassFiles(runs.size(), fanIn);
+			if (lastPassFiles <= runs.size()) {
+				if (lastPassFiles % fanIn != 0) {
+					groupSizes.add((int) (lastPassFiles % fanIn));
+				}
+				for (long i = lastPassFiles / fanIn; i > 0; i--) {
+					groupSizes.add(fanIn);
+				}
+			} else {
+				for (int i = 0; i < runs.size(); i += fanIn) {
+					groupSizes.add(Math.min(fanIn, runs.size() - i));
+				}
+			}
+			List<Path> nextPass = new ArrayList<>();
+			int start = 0;
+			for (int groupSize : groupSizes) {
+				List<Path> group = runs.subList(start, start + groupSize);
+				start += groupSize;
+				if (group.size() == 1) {
+					nextPass.add(group.get(0));
+					continue;
+				}
+				Path mergedRun = Files.createTempFile(Paths.get(tempMergeDirectoryPath), "merge", runFileSuffix(duplicates));
+				try (OutputSink writer = openRunOutput(mergedRun)) {
+					mergeRuns(group.size(), run -> openRunReader(group.get(run)), lineWriter(writer, duplicates));
+				}
+				metrics.addMergedFile();
+				if (manifest != null) {
+					manifest.merged(mergedRun, group);
+				}
+				for (Path run : group) {
+					if (temporaryRuns.remove(run)) {
+						deleteMergedRun(run);
+					}
+				}
+				temporaryRuns.add(mergedRun);
+				nextPass.add(mergedRun);
+			}
+			nextPass.addAll(runs.subList(start, runs.size()));
+			runs = nextPass;
+		}
+		return runs;
+	}
+
+	/**
+	 * Delete a sorted file once a merge pass merged it. A memory mapped file cannot be deleted on Windows until
+	 * its windows are garbage collected, so it is then left to cleanUp.
+	 */
+	private void deleteMergedRun(Path run) throws IOException {
+		try {
+			Files.deleteIfExists(run);
+		} catch (IOException e) {
+			if (!memoryMappedReads) {
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Number of the smallest files a merge pass has to merge to leave exactly fanIn files: whole groups of fanIn
+	 * files, each removing fanIn - 1 files, and one smaller group for the rest.
+	 * @return More than files when a single pass cannot bring them down to fanIn
+	 */
+	static long lastPassFiles(int files, int fanIn) {
+		int excess = files - fanIn;
+		long groups = excess / (fanIn - 1);
+		int rest = excess % (fanIn - 1);
+		return groups * fanIn + (rest > 0 ? rest + 1 : 0);
+	}
+
+	/**
+	 * @return Number of merge passes mergePasses runs before the final merge of files sorted files
+	 */
+	static int mergePassCount(int files, int fanIn) {
+		int passes = 0;
+		for (int remaining = files; remaining > fanIn; remaining = (remaining + fanIn - 1) / fanIn) {
+			passes++;
+			if (lastPassFiles(remaining, fanIn) <= remaining) {
+				break;
+			}
+		}
+		return passes;
+	}
+
+	private static List<Path> smallestFirst(List<Path> runs) throws IOException {
+		Map<Path, Long> sizes = new HashMap<>();
+		for (Path run : runs) {
+			sizes.put(run, Files.size(run));
+		}
+		List<Path> sorted = new ArrayList<>(runs);
+		sorted.sort(Comparator.comparing(sizes::get));
+		return sorted;
+	}
+
+	/**
+	 * Fan-in of the merge. Unless set explicitly, as many files as fit the memory budget left by the buffers of
+	 * the merge writers, with the read buffers of each file, between 2 and Maximum_Temp_File_Count.
+	 */
+	private int effectiveFanIn() {
+		if (maxFanIn > 0) {
+			return maxFanIn;
+		}
+		long fanIn = (effectiveMemoryBudget() - mergeWriteMemory()) / mergeReadMemoryPerFile();
+		return (int) Math.max(2, Math.min(Maximum_Temp_File_Count, fanIn));
+	}
+
+	/**
+	 * Memory of the buffers writing the output of a merge: one writer for a merge pass, compressed when a run
+	 * codec is set, or one writer for each key range merged at the same time by a partitioned merge.
+	 */
+	private long mergeWriteMemory() {
+		long finalWriters = (long) writeBufferSize * Math.min(parallelism, mergePartitions);
+		return Math.max(runWriteMemory(), finalWriters);
+	}
+
+	/**
+	 * Memory of the buffers reading one sorted file during a merge, as opened by openPlainRunReader, or by
+	 * openRunRegionReader once for each key range merged at the same time by a partitioned merge.
+	 */
+	private long mergeReadMemoryPerFile() {
+		long bufferPerFile = readAhead && !memoryMappedReads ? 2L * readBufferSize + readAheadLineBufferSize() : readBufferSize;
+		if (runCodec != null) {
+			long compressedPerFile = (memoryMappedReads ? 0L : readBufferSize) + readBufferSize
+					+ CompressedRunInputStream.bufferMemory(runCodec, CompressedRunChannel.DEFAULT_BLOCK_SIZE);
+			bufferPerFile = Math.max(bufferPerFile, compressedPerFile);
+		}
+		if (mergePartitions > 1) {
+			int rangeBuffer = Math.max(8192, readBufferSize / mergePartitions);
+			long perRange = readAhead ? 2L * rangeBuffer + Math.min(rangeBuffer, 64 * 1024) : rangeBuffer;
+			bufferPerFile = Math.max(bufferPerFile, perRange * Math.min(parallelism, mergePartitions));
+		}
+		return bufferPerFile;
+	}
+
+	private static int compareBytes(SortedFileStreamer s1, SortedFileStreamer s2) {
+		return Arrays.compareUnsigned(s1.array(), s1.offset(), s1.offset() + s1.length(),
+				s2.array(), s2.offset(), s2.offset() + s2.length());
+	}
+
+	/**
+	 * Consumer of merged lines, called with the stream holding the line before it moves on.
+	 */
+	private interface LineSink {
+		void accept(SortedFileStreamer line) throws IOException;
+
+		/**
+		 * Called once every line has been accepted.
+		 */
+		default void finish() throws IOException {
+		}
+	}
+
+	/**
+	 * Opens the reader of one of the sorted files of a merge.
+	 */
+	private interface RunReaderOpener {
+		LineReader open(int run) throws IOException;
+	}
+
+	/**
+	 * Copy of the last written line, compared byte by byte to drop duplicates without creating Strings.
+	 */
+	private static class PreviousLine {
+		private byte[] bytes = new byte[256];
+		private int length = -1;
+
+		boolean matches(SortedFileStreamer line) {
+			return length >= 0 && Arrays.equals(bytes, 0, length, line.array(), line.offset(), line.offset() + line.length());
+		}
+
+		void set(SortedFileStreamer line) {
+			if (line.length() > bytes.length) {
+				bytes = new byte[Math.max(line.length(), bytes.length * 2)];
+			}
+			System.arraycopy(line.array(), line.offset(), bytes, 0, line.length());
+			length = line.length();
+		}
+	}
+
+	/**
+	 * Adds up the counts of equal merged lines and writes each distinct line once with its total, as soon as
+	 * a different line follows it. Only the bytes of the previous line are kept, whatever the number of lines.
+	 */
+	private static class DuplicateCounter implements LineSink {
+		private final OutputSink output;
+		private final PreviousLine previous = new PreviousLine();
+		private long count = 0L;
+
+		DuplicateCounter(OutputSink output) {
+			this.output = output;
+		}
+
+		@Override
+		public void accept(SortedFileStreamer line) throws IOException {
+			if (previous.matches(line)) {
+				count += line.count();
+				return;
+			}
+			finish();
+			previous.set(line);
+			count = line.count();
+		}
+
+		@Override
+		public void finish() throws IOException {
+			if (count > 0) {
+				output.write(previous.bytes, 0, previous.length, count);
+				count = 0L;
+			}
+		}
+	}
+
+	/**
+	 * K-way merge of the given sorted files, passing every line to the sink in sorted order.
+	 * The smallest current line is picked with a loser tree over the file streams, comparing decoded Strings,
+	 * raw bytes in byte mode, or the keys of the SortSpec.
+	 * @param runCount - Number of sorted files
+	 * @param opener - Opens the reader of each sorted file
+	 * @param sink - Receives the merged lines
+	 * @throws IOException
+	 */
+	private void mergeRuns(int runCount, RunReaderOpener opener, LineSink sink) throws IOException {
+		List<SortedFileStreamer> fileStreamers = new ArrayList<>();
+		try {
+			for (int run = 0; run < runCount; run++) {
+				fileStreamers.add(new SortedFileStreamer(opener.open(run), sortSpec));
+			}
+			// cached prefixes settle most comparisons, the lines are only compared when they are equal
+			Comparator<SortedFileStreamer> order;
+			if (sortSpec != null) {
+				order = (s1, s2) -> {
+					int result = Long.compareUnsigned(s1.prefix(), s2.prefix());
+					return result != 0 ? result : sortSpec.compare(s1.array(), s1.offset(), s1.length(), s1.keys(), 0,
+							s2.array(), s2.offset(), s2.length(), s2.keys(), 0);
+				};
+			} else if (byteMode) {
+				order = (s1, s2) -> {
+					int result = Long.compareUnsigned(s1.prefix(), s2.prefix());
+					return result != 0 ? result : compareBytes(s1, s2);
+				};
+			} else {
+				order = (s1, s2) -> {
+					int result = Long.compareUnsigned(s1.charPrefix(), s2.charPrefix());
+					return result != 0 ? result : s1.getLine().compareTo(s2.getLine());
+				};
+			}
+			LoserTree mergeTree = new LoserTree(fileStreamers, order);
+			SortedFileStreamer line = mergeTree.top();
+			int merged = 0;
+			while (line != null) {
+				sink.accept(line);
+				line.advance();
+				mergeTree.adjust();
+				line = mergeTree.top();
+				if (++merged == PROGRESS_INTERVAL) {
+					metrics.addRecordsMerged(merged);
+					merged = 0;
+					reportProgress();
+				}
+			}
+			metrics.addRecordsMerged(merged);
+			sink.finish();
+		} finally {
+			for (SortedFileStreamer fileStreamer : fileStreamers) {
+				fileStreamer.close();
+			}
 		}
 	}
 
@@ -242,18 +1772,24 @@ public class FileMergeSort {
 	}
 
 	/**
-	 * Create and write temporary files after split from the Temporary merged file.
-	 * @param block - List of words split from the temporary merged file and written to a file.
+	 * Create and write temporary files after split from the input files.
+	 * The block is sorted in place before it is written.
+	 * @param block - Block of lines read from the input files and written to a file.
 	 * @param tempSplitDirectoryPath - Temporary Directory path to where temporary files after split is saved.
+	 * @param duplicates - Keep, drop or count equal lines of the block
+	 * @return Path of the temporary file
 	 * @throws IOException
 	 */
-	private void writeToTempFile(List<String> block, String tempSplitDirectoryPath) throws IOException {
-		if (Files.notExists(Path.of(tempSplitDirectoryPath))) {
-			Files.createDirectory(Path.of(tempSplitDirectoryPath));
+	private Path writeToTempFile(RecordBlock block, String tempSplitDirectoryPath, Duplicates duplicates)
+			throws IOException {
+		Path tempFilePath = Files.createTempFile(Paths.get(tempSplitDirectoryPath), "temp", runFileSuffix(duplicates));
+		block.sort();
+		try (OutputSink output = openRunOutput(tempFilePath)) {
+			block.writeTo(output, duplicates);
 		}
-		Path tempFilePath = Files.createTempFile(Paths.get(tempSplitDirectoryPath), "temp", ".dat");
-		Stream<String> sorted = block.stream().sorted(Comparator.naturalOrder());
-		Files.write(tempFilePath, (Iterable<String>) sorted::iterator, StandardOpenOption.APPEND);
+		metrics.addRun(Files.size(tempFilePath));
+		reportProgress();
+		return tempFilePath;
 	}
 
 	/**
@@ -270,7 +1806,7 @@ public class FileMergeSort {
 			}
 			Files.deleteIfExists(Path.of(tempSplitDirectoryPath));
 		} catch (IOException e) {
-			System.out.println("Error while Clean up");
+			System.err.println("Error while Clean up");
 		}
 	}
 }
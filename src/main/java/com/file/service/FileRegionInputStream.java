@@ -0,0 +1,63 @@
+package com.file.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * InputStream reading one byte range of a file with positional reads, so several ranges of the same
+ * file can be read at once by different threads.
+ */
+class FileRegionInputStream extends InputStream {
+
+	private final FileChannel channel;
+	private long position;
+	private final long end;
+
+	/**
+	 * @param filePath - File to read
+	 * @param start - Offset of the first byte to read
+	 * @param end - Offset after the last byte to read
+	 * @throws IOException
+	 */
+	FileRegionInputStream(Path filePath, long start, long end) throws IOException {
+		this.channel = FileChannel.open(filePath, StandardOpenOption.READ);
+		this.position = start;
+		this.end = end;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] single = new byte[1];
+		return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] bytes, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+		if (position >= end) {
+			return -1;
+		}
+		int count = channel.read(ByteBuffer.wrap(bytes, offset, (int) Math.min(length, end - position)), position);
+		if (count < 0) {
+			return -1;
+		}
+		position += count;
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return (int) Math.min(Integer.MAX_VALUE, end - position);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,71 @@
+package com.file.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * LineReader over an Iterator of lines, each String being one line without its terminator.
+ * Every line is encoded as UTF-8 when it is reached; the iterator is only advanced by next().
+ */
+class IteratorLineReader implements LineReader {
+
+	private final Iterator<String> lines;
+	private byte[] line = new byte[0];
+	private long bytesRead = 0L;
+
+	/**
+	 * @param lines - Lines to read, none of them null or holding a '\n' or '\r'
+	 */
+	IteratorLineReader(Iterator<String> lines) {
+		this.lines = lines;
+	}
+
+	/**
+	 * @throws IllegalArgumentException - if the next line is null or holds a line terminator, which would turn it
+	 * into several lines once written to a sorted file
+	 */
+	@Override
+	public boolean next() {
+		if (!lines.hasNext()) {
+			return false;
+		}
+		String next = lines.next();
+		if (next == null) {
+			throw new IllegalArgumentException("Lines to sort cannot be null");
+		}
+		line = next.getBytes(StandardCharsets.UTF_8);
+		for (byte b : line) {
+			if (b == '\n' || b == '\r') {
+				throw new IllegalArgumentException("Lines to sort cannot contain line terminators");
+			}
+		}
+		bytesRead += line.length + 1;
+		return true;
+	}
+
+	@Override
+	public byte[] array() {
+		return line;
+	}
+
+	@Override
+	public int offset() {
+		return 0;
+	}
+
+	@Override
+	public int length() {
+		return line.length;
+	}
+
+	/**
+	 * @return Number of UTF-8 bytes of the lines read so far, counting a line separator after each
+	 */
+	long bytesRead() {
+		return bytesRead;
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,409 @@
+package com.file.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Manifest of a resumable job, kept in the temporary directory so that a job killed half way picks up from
+ * its last checkpoint instead of starting over.
+ * The manifest is a log of one record per line, appended and forced to the storage device before the job goes
+ * on, each line ending with a checksum of its own so a line torn by a crash is recognized and dropped:
+ * <pre>
+ * job      fingerprint of the input files and of the settings that shape the temporary files
+ * commit   input files now fully held by sorted files, and those sorted files with their length and checksum
+ * merge    sorted file written by a merge pass, with its length and checksum, and the files it replaces
+ * </pre>
+ * Sorted files are written through checksummed channels, which compute their length and checksum on the way and
+ * force them before they are recorded, so recording a file never reads it back. When a job is opened again with the same fingerprint and
+ * every recorded file still has its length and checksum, the input files already committed are skipped and the
+ * merge goes on from the files left by the last merge pass; files of the temporary directory that are not
+ * recorded were cut short by the crash and are deleted. Otherwise the job starts over.
+ */
+final class JobManifest implements Closeable {
+
+	static final String FILE_NAME = "job.manifest";
+
+	private static final String JOB = "job";
+	private static final String COMMIT = "commit";
+	private static final String MERGE = "merge";
+	private static final String INPUT_PREFIX = "#";
+
+	private final Path runDirectory;
+	private final List<Path> inputs;
+	private final Map<Path, Integer> inputIndexes = new HashMap<>();
+	private final Set<Integer> completedInputs = new HashSet<>();
+	private final Set<String> liveFiles = new LinkedHashSet<>();
+	private final Set<String> mergedInputs = new HashSet<>();
+	private final Map<String, String> checksums = new HashMap<>();
+	private final Map<String, String> writtenChecksums = new ConcurrentHashMap<>();
+	private FileChannel channel;
+	private boolean resumed;
+
+	private JobManifest(Path runDirectory, List<Path> inputs) {
+		this.runDirectory = runDirectory;
+		this.inputs = inputs;
+		for (int i = 0; i < inputs.size(); i++) {
+			inputIndexes.put(inputs.get(i), i);
+		}
+	}
+
+	/**
+	 * Open the manifest of a job, resuming it if the manifest was written for the same job and every file it
+	 * records is intact, or starting it over with an empty run directory.
+	 * @param manifestFile - Manifest in the temporary directory
+	 * @param runDirectory - Directory of the sorted temporary files
+	 * @param inputs - Input files of the job, always in the same order
+	 * @param fingerprint - Fingerprint of the input files and of the settings of the job
+	 * @return Open manifest
+	 * @throws IOException
+	 */
+	static JobManifest open(Path manifestFile, Path runDirectory, List<Path> inputs, String fingerprint) throws IOException {
+		JobManifest manifest = new JobManifest(runDirectory, inputs);
+		long validLength = Files.exists(manifestFile) ? manifest.replay(manifestFile, fingerprint) : -1L;
+		manifest.resumed = validLength > 0 && manifest.verify();
+		Files.createDirectories(runDirectory);
+		if (!manifest.resumed) {
+			manifest.completedInputs.clear();
+			manifest.liveFiles.clear();
+			manifest.mergedInputs.clear();
+			manifest.checksums.clear();
+			validLength = 0L;
+		}
+		manifest.deleteUnrecordedFiles();
+		manifest.channel = FileChannel.open(manifestFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		manifest.channel.truncate(validLength);
+		manifest.channel.position(validLength);
+		if (!manifest.resumed) {
+			manifest.append(JOB + "\t" + fingerprint);
+		}
+		return manifest;
+	}
+
+	/**
+	 * @return true if the job goes on from an earlier attempt
+	 */
+	boolean isResumed() {
+		return resumed;
+	}
+
+	/**
+	 * @return Input files not yet held by committed sorted files, in order
+	 */
+	List<Path> pendingInputs() {
+		List<Path> pending = new ArrayList<>();
+		for (int i = 0; i < inputs.size(); i++) {
+			if (!completedInputs.contains(i)) {
+				pending.add(inputs.get(i));
+			}
+		}
+		return pending;
+	}
+
+	/**
+	 * Sorted files left to merge: the given sorted input files no merge pass has replaced yet, then the committed
+	 * and merged temporary files not replaced yet.
+	 * @param sortedInputs - Input files merged directly, as they are already sorted
+	 */
+	List<Path> sortedFiles(List<Path> sortedInputs) {
+		List<Path> files = new ArrayList<>();
+		for (Path input : sortedInputs) {
+			if (!mergedInputs.contains(token(input))) {
+				files.add(input);
+			}
+		}
+		for (String file : liveFiles) {
+			files.add(resolve(file));
+		}
+		return files;
+	}
+
+	/**
+	 * Record that the given input files are fully held by the given sorted files, together with the sorted
+	 * files committed before.
+	 * @param runs - Sorted files written from the input files through checksummed channels
+	 * @param completed - Input files whose every line is in runs or earlier committed files
+	 * @throws IOException
+	 */
+	synchronized void commit(List<Path> runs, List<Path> completed) throws IOException {
+		StringBuilder record = new StringBuilder(COMMIT).append('\t');
+		record.append(completed.stream().map(input -> Integer.toString(inputIndexes.get(input))).collect(Collectors.joining(",")));
+		List<String> names = new ArrayList<>();
+		for (Path run : runs) {
+			String name = token(run);
+			String checksum = writtenChecksum(name);
+			record.append('\t').append(name).append(':').append(checksum);
+			names.add(name);
+			checksums.put(name, checksum);
+		}
+		append(record.toString());
+		for (Path input : completed) {
+			completedInputs.add(inputIndexes.get(input));
+		}
+		liveFiles.addAll(names);
+	}
+
+	/**
+	 * Record that a merge pass wrote the given sorted file out of the given files, which are no longer needed.
+	 * @param merged - File written by the merge pass through a checksummed channel
+	 * @param sources - Files merged into it
+	 * @throws IOException
+	 */
+	synchronized void merged(Path merged, List<Path> sources) throws IOException {
+		String name = token(merged);
+		String checksum = writtenChecksum(name);
+		StringBuilder record = new StringBuilder(MERGE).append('\t').append(name).append(':').append(checksum);
+		for (Path source : sources) {
+			record.append('\t').append(token(source));
+		}
+		append(record.toString());
+		checksums.put(name, checksum);
+		for (Path source : sources) {
+			String token = token(source);
+			if (!liveFiles.remove(token)) {
+				mergedInputs.add(token);
+			}
+		}
+		liveFiles.add(name);
+	}
+
+	/**
+	 * Channel writing a sorted file to record in this manifest: the length and CRC32C of the file are computed
+	 * while it is written, and the file is forced to the storage device when the channel is closed.
+	 * @param file - Sorted file written by the channel
+	 * @param channel - Channel of the file, closed with the returned channel
+	 */
+	WritableByteChannel checksummed(Path file, FileChannel channel) {
+		return new ChecksumChannel(token(file), channel);
+	}
+
+	private String writtenChecksum(String name) {
+		String checksum = writtenChecksums.remove(name);
+		if (checksum == null) {
+			throw new IllegalStateException(name + " was not written through a checksummed channel");
+		}
+		return checksum;
+	}
+
+	/**
+	 * Read the records of the manifest, up to the first torn or corrupt line.
+	 * @return Length of the valid records, or -1 if the manifest belongs to another job
+	 */
+	private long replay(Path manifestFile, String fingerprint) throws IOException {
+		byte[] content = Files.readAllBytes(manifestFile);
+		long validLength = 0L;
+		int start = 0;
+		for (int end = 0; end < content.length; end++) {
+			if (content[end] != '\n') {
+				continue;
+			}
+			String line = new String(content, start, end - start, StandardCharsets.UTF_8);
+			int separator = line.lastIndexOf('\t');
+			if (separator < 0 || !checksum(line.substring(0, separator)).equals(line.substring(separator + 1))) {
+				break;
+			}
+			String[] fields = line.substring(0, separator).split("\t", -1);
+			if (validLength == 0L) {
+				if (!fields[0].equals(JOB) || fields.length != 2 || !fields[1].equals(fingerprint)) {
+					return -1L;
+				}
+			} else if (!apply(fields)) {
+				break;
+			}
+			start = end + 1;
+			validLength = start;
+		}
+		return validLength;
+	}
+
+	private boolean apply(String[] fields) {
+		try {
+			return applyRecord(fields);
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+
+	private boolean applyRecord(String[] fields) {
+		if (fields[0].equals(COMMIT) && fields.length >= 2) {
+			if (!fields[1].isEmpty()) {
+				for (String index : fields[1].split(",")) {
+					completedInputs.add(Integer.parseInt(index));
+				}
+			}
+			for (int i = 2; i < fields.length; i++) {
+				addLive(fields[i]);
+			}
+			return true;
+		}
+		if (fields[0].equals(MERGE) && fields.length >= 2) {
+			addLive(fields[1]);
+			for (int i = 2; i < fields.length; i++) {
+				if (!liveFiles.remove(fields[i])) {
+					mergedInputs.add(fields[i]);
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private void addLive(String field) {
+		int separator = field.indexOf(':');
+		String name = field.substring(0, separator);
+		liveFiles.add(name);
+		checksums.put(name, field.substring(separator + 1));
+	}
+
+	/**
+	 * Check that every recorded file left to merge still has its length and checksum.
+	 */
+	private boolean verify() throws IOException {
+		for (String file : liveFiles) {
+			Path path = resolve(file);
+			if (!Files.isRegularFile(path) || !checksums.get(file).equals(checksum(path))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Delete the files of the run directory the manifest does not need: files cut short by a crash, files
+	 * written after the last checkpoint, and every file of an earlier job.
+	 */
+	private void deleteUnrecordedFiles() throws IOException {
+		try (Stream<Path> paths = Files.list(runDirectory)) {
+			for (Path path : paths.filter(Files::isRegularFile).collect(Collectors.toList())) {
+				if (!liveFiles.contains(path.getFileName().toString())) {
+					Files.delete(path);
+				}
+			}
+		}
+	}
+
+	private void append(String record) throws IOException {
+		ByteBuffer line = ByteBuffer.wrap((record + "\t" + checksum(record) + "\n").getBytes(StandardCharsets.UTF_8));
+		while (line.hasRemaining()) {
+			channel.write(line);
+		}
+		channel.force(false);
+	}
+
+	/**
+	 * Name of a temporary file in the manifest, or # and the index of an input file.
+	 */
+	private String token(Path file) {
+		Integer index = inputIndexes.get(file);
+		return index != null ? INPUT_PREFIX + index : file.getFileName().toString();
+	}
+
+	private Path resolve(String token) {
+		return token.startsWith(INPUT_PREFIX) ? inputs.get(Integer.parseInt(token.substring(1))) : runDirectory.resolve(token);
+	}
+
+	/**
+	 * Length and CRC32C of a file, read back to verify it when a job is resumed.
+	 */
+	private static String checksum(Path file) throws IOException {
+		CRC32C crc = new CRC32C();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(256 * 1024);
+		long length = 0L;
+		try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+			while (fileChannel.read(buffer) >= 0) {
+				buffer.flip();
+				length += buffer.remaining();
+				crc.update(buffer);
+				buffer.clear();
+			}
+		}
+		return checksum(length, crc);
+	}
+
+	private static String checksum(long length, CRC32C crc) {
+		return length + ":" + Long.toHexString(crc.getValue());
+	}
+
+	private static String checksum(String record) {
+		CRC32C crc = new CRC32C();
+		crc.update(record.getBytes(StandardCharsets.UTF_8));
+		return Long.toHexString(crc.getValue());
+	}
+
+	/**
+	 * Force the entries of a directory, so a file renamed into it survives a crash. Not every platform can open
+	 * a directory, there the rename is left to the file system.
+	 */
+	static void forceDirectory(Path directory) {
+		try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			directoryChannel.force(true);
+		} catch (IOException e) {
+			// not supported on this platform
+		}
+	}
+
+	/**
+	 * Channel computing the length and CRC32C of the bytes written to a file, recorded once the file is forced.
+	 */
+	private final class ChecksumChannel implements WritableByteChannel {
+
+		private final String name;
+		private final FileChannel fileChannel;
+		private final CRC32C crc = new CRC32C();
+		private long length = 0L;
+
+		private ChecksumChannel(String name, FileChannel fileChannel) {
+			this.name = name;
+			this.fileChannel = fileChannel;
+		}
+
+		@Override
+		public int write(ByteBuffer source) throws IOException {
+			ByteBuffer written = source.duplicate();
+			int count = fileChannel.write(source);
+			written.limit(written.position() + count);
+			crc.update(written);
+			length += count;
+			return count;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return fileChannel.isOpen();
+		}
+
+		@Override
+		public void close() throws IOException {
+			try (fileChannel) {
+				if (fileChannel.isOpen()) {
+					fileChannel.force(true);
+					writtenChecksums.put(name, checksum(length, crc));
+				}
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.file.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Channel cutting the bytes written to it into lines, passed to a consumer as Strings.
+ * Lines end at '\n' and a '\r' right before it is dropped, as LineReader does; a line split between two writes
+ * is kept until its end arrives, and a last line without '\n' is passed on close.
+ */
+class LineConsumerChannel implements WritableByteChannel {
+
+	private final Consumer<String> consumer;
+	private byte[] pending = new byte[256];
+	private int pendingLength = 0;
+	private boolean open = true;
+
+	/**
+	 * @param consumer - Receives every line
+	 */
+	LineConsumerChannel(Consumer<String> consumer) {
+		this.consumer = consumer;
+	}
+
+	@Override
+	public int write(ByteBuffer source) throws IOException {
+		if (!open) {
+			throw new IOException("Channel is closed");
+		}
+		int written = source.remaining();
+		if (pendingLength + written > pending.length) {
+			pending = Arrays.copyOf(pending, Math.max(pendingLength + written, pending.length * 2));
+		}
+		source.get(pending, pendingLength, written);
+		int end = pendingLength + written;
+		int start = 0;
+		for (int i = pendingLength; i < end; i++) {
+			if (pending[i] == '\n') {
+				emit(start, i);
+				start = i + 1;
+			}
+		}
+		pendingLength = end - start;
+		System.arraycopy(pending, start, pending, 0, pendingLength);
+		return written;
+	}
+
+	private void emit(int start, int end) {
+		if (end > start && pending[end - 1] == '\r') {
+			end--;
+		}
+		consumer.accept(new String(pending, start, end - start, StandardCharsets.UTF_8));
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void close() {
+		if (open && pendingLength > 0) {
+			emit(0, pendingLength);
+			pendingLength = 0;
+		}
+		open = false;
+	}
+}
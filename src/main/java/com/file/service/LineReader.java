@@ -0,0 +1,41 @@
+package com.file.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads a file line by line as raw UTF-8 bytes, without decoding them into Strings.
+ * The current line is exposed as a region of an internal array that is only valid until the next call to next().
+ * Lines end at '\n', a '\r' right before it is dropped, and a last line without '\n' is still returned.
+ */
+interface LineReader extends Closeable {
+
+	/**
+	 * Move to the next line.
+	 * @return false at End of File
+	 * @throws IOException
+	 */
+	boolean next() throws IOException;
+
+	/**
+	 * @return Array holding the current line
+	 */
+	byte[] array();
+
+	/**
+	 * @return Start of the current line in array()
+	 */
+	int offset();
+
+	/**
+	 * @return Length of the current line in bytes, without the line terminator
+	 */
+	int length();
+
+	/**
+	 * @return Number of occurrences the current line stands for, 1 unless the file holds counted lines
+	 */
+	default long count() {
+		return 1L;
+	}
+}
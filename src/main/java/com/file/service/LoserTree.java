@@ -0,0 +1,90 @@
+package com.file.service;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Tournament tree (loser tree) used for the K-way merge of sorted files.
+ * Each internal node remembers the loser of the match played there and the overall winner is kept at the root,
+ * so after the winning stream moves on to its next line only the matches on the path from its leaf to the
+ * root are replayed: about log2(k) comparisons per line, against about 2 * log2(k) for a binary heap, and
+ * no allocation while merging.
+ * An exhausted stream loses every match. Ties are won by the stream with the lower index.
+ */
+class LoserTree {
+
+	private final SortedFileStreamer[] streamers;
+	private final Comparator<SortedFileStreamer> comparator;
+	private final int[] tree;
+
+	/**
+	 * @param streamers - Streams of the sorted files, positioned on their first line
+	 * @param comparator - Order of the current lines of two streams that both have a line
+	 */
+	LoserTree(List<SortedFileStreamer> streamers, Comparator<SortedFileStreamer> comparator) {
+		this.streamers = streamers.toArray(new SortedFileStreamer[0]);
+		this.comparator = comparator;
+		int k = this.streamers.length;
+		this.tree = new int[Math.max(1, k)];
+		if (k == 0) {
+			tree[0] = -1;
+			return;
+		}
+		int[] winners = new int[2 * k];
+		for (int i = 0; i < k; i++) {
+			winners[k + i] = i;
+		}
+		for (int node = k - 1; node > 0; node--) {
+			int left = winners[2 * node];
+			int right = winners[2 * node + 1];
+			if (beats(left, right)) {
+				winners[node] = left;
+				tree[node] = right;
+			} else {
+				winners[node] = right;
+				tree[node] = left;
+			}
+		}
+		tree[0] = k == 1 ? 0 : winners[1];
+	}
+
+	/**
+	 * @return The stream holding the smallest current line, or null once every stream is exhausted
+	 */
+	SortedFileStreamer top() {
+		int winner = tree[0];
+		if (winner < 0 || !streamers[winner].hasLine()) {
+			return null;
+		}
+		return streamers[winner];
+	}
+
+	/**
+	 * Restore the tree after the stream returned by top() has moved on to its next line.
+	 */
+	void adjust() {
+		int winner = tree[0];
+		if (winner < 0) {
+			return;
+		}
+		for (int node = (winner + streamers.length) >>> 1; node > 0; node >>>= 1) {
+			int loser = tree[node];
+			if (beats(loser, winner)) {
+				tree[node] = winner;
+				winner = loser;
+			}
+		}
+		tree[0] = winner;
+	}
+
+	private boolean beats(int a, int b) {
+		if (!streamers[a].hasLine()) {
+			return false;
+		}
+		if (!streamers[b].hasLine()) {
+			return true;
+		}
+		int result = comparator.compare(streamers[a], streamers[b]);
+		return result < 0 || (result == 0 && a < b);
+	}
+}
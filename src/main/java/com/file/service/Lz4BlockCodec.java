@@ -0,0 +1,172 @@
+package com.file.service;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Dependency free implementation of the LZ4 block format.
+ * Compression is a single greedy pass finding 4 byte matches through a hash table of recent positions, which
+ * costs little CPU and works well on sorted text where neighbouring lines share long prefixes.
+ * Output is compatible with other LZ4 block decoders.
+ */
+public class Lz4BlockCodec implements RunCodec {
+
+	private static final int MIN_MATCH = 4;
+	private static final int LAST_LITERALS = 5;
+	private static final int MATCH_FIND_LIMIT = 12;
+	private static final int MAX_DISTANCE = 65535;
+	private static final int HASH_LOG = 14;
+
+	private static final ThreadLocal<int[]> HASH_TABLE = ThreadLocal.withInitial(() -> new int[1 << HASH_LOG]);
+
+	@Override
+	public String fileExtension() {
+		return ".lz4";
+	}
+
+	@Override
+	public int maxCompressedLength(int length) {
+		return length + length / 255 + 16;
+	}
+
+	@Override
+	public int compress(byte[] source, int sourceOffset, int length, byte[] target, int targetOffset) {
+		int end = sourceOffset + length;
+		int anchor = sourceOffset;
+		int output = targetOffset;
+		if (length >= MATCH_FIND_LIMIT + 1) {
+			int[] table = HASH_TABLE.get();
+			Arrays.fill(table, -1);
+			int matchLimit = end - MATCH_FIND_LIMIT;
+			int matchEnd = end - LAST_LITERALS;
+			int position = sourceOffset;
+			while (position < matchLimit) {
+				int sequence = readInt(source, position);
+				int hash = (sequence * -1640531535) >>> (32 - HASH_LOG);
+				int reference = table[hash];
+				table[hash] = position;
+				if (reference < 0 || position - reference > MAX_DISTANCE || readInt(source, reference) != sequence) {
+					position++;
+					continue;
+				}
+				while (position > anchor && reference > sourceOffset && source[position - 1] == source[reference - 1]) {
+					position--;
+					reference--;
+				}
+				int matchLength = MIN_MATCH;
+				while (position + matchLength < matchEnd && source[position + matchLength] == source[reference + matchLength]) {
+					matchLength++;
+				}
+				output = writeSequence(source, anchor, position - anchor, target, output, position - reference, matchLength);
+				position += matchLength;
+				anchor = position;
+			}
+		}
+		return writeLastLiterals(source, anchor, end - anchor, target, output) - targetOffset;
+	}
+
+	private static int writeSequence(byte[] source, int literalStart, int literalLength, byte[] target, int output,
+			int distance, int matchLength) {
+		int token = output++;
+		output = writeLiterals(source, literalStart, literalLength, target, token, output);
+		target[output++] = (byte) distance;
+		target[output++] = (byte) (distance >>> 8);
+		int remaining = matchLength - MIN_MATCH;
+		if (remaining >= 15) {
+			target[token] |= 15;
+			output = writeLength(remaining - 15, target, output);
+		} else {
+			target[token] |= (byte) remaining;
+		}
+		return output;
+	}
+
+	private static int writeLastLiterals(byte[] source, int literalStart, int literalLength, byte[] target, int output) {
+		int token = output++;
+		return writeLiterals(source, literalStart, literalLength, target, token, output);
+	}
+
+	private static int writeLiterals(byte[] source, int literalStart, int literalLength, byte[] target, int token, int output) {
+		if (literalLength >= 15) {
+			target[token] = (byte) (15 << 4);
+			output = writeLength(literalLength - 15, target, output);
+		} else {
+			target[token] = (byte) (literalLength << 4);
+		}
+		System.arraycopy(source, literalStart, target, output, literalLength);
+		return output + literalLength;
+	}
+
+	private static int writeLength(int length, byte[] target, int output) {
+		while (length >= 255) {
+			target[output++] = (byte) 255;
+			length -= 255;
+		}
+		target[output++] = (byte) length;
+		return output;
+	}
+
+	private static int readInt(byte[] bytes, int position) {
+		return (bytes[position] & 0xff) | (bytes[position + 1] & 0xff) << 8 | (bytes[position + 2] & 0xff) << 16
+				| (bytes[position + 3] & 0xff) << 24;
+	}
+
+	@Override
+	public void decompress(byte[] source, int sourceOffset, int length, byte[] target, int targetOffset, int originalLength)
+			throws IOException {
+		int input = sourceOffset;
+		int end = sourceOffset + length;
+		int output = targetOffset;
+		int outputEnd = targetOffset + originalLength;
+		try {
+			while (input < end) {
+				int token = source[input++] & 0xff;
+				int literalLength = token >>> 4;
+				if (literalLength == 15) {
+					int extra;
+					do {
+						extra = source[input++] & 0xff;
+						literalLength += extra;
+					} while (extra == 255);
+				}
+				if (literalLength > outputEnd - output || literalLength > end - input) {
+					throw new IOException("Corrupt compressed block");
+				}
+				System.arraycopy(source, input, target, output, literalLength);
+				input += literalLength;
+				output += literalLength;
+				if (input >= end) {
+					break;
+				}
+				int distance = (source[input] & 0xff) | (source[input + 1] & 0xff) << 8;
+				input += 2;
+				int matchLength = token & 15;
+				if (matchLength == 15) {
+					int extra;
+					do {
+						extra = source[input++] & 0xff;
+						matchLength += extra;
+					} while (extra == 255);
+				}
+				matchLength += MIN_MATCH;
+				int match = output - distance;
+				if (distance == 0 || match < targetOffset || matchLength > outputEnd - output) {
+					throw new IOException("Corrupt compressed block");
+				}
+				if (distance >= matchLength) {
+					System.arraycopy(target, match, target, output, matchLength);
+					output += matchLength;
+				} else {
+					for (int i = 0; i < matchLength; i++) {
+						target[output++] = target[match++];
+					}
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Corrupt compressed block");
+		}
+		if (output != outputEnd) {
+			throw new IOException("Corrupt compressed block");
+		}
+	}
+}
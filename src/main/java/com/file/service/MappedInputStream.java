@@ -0,0 +1,125 @@
+package com.file.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * InputStream reading a file through memory mapped windows instead of read() system calls.
+ * A MappedByteBuffer cannot be larger than 2GB, so larger files are mapped one window at a time and the next
+ * window is mapped when the current one is used up.
+ * With the sequential hint, the window after the current one is mapped ahead and its pages are loaded on a
+ * background thread (the closest Java equivalent of madvise(MADV_SEQUENTIAL / MADV_WILLNEED)), so reading
+ * rarely waits for a page fault. The loads share a few threads for every stream; a load that finds them all
+ * busy is skipped, and the window is then paged in by the reads themselves.
+ * Java cannot unmap a MappedByteBuffer: a window is only released once it is garbage collected after this
+ * stream dropped it. On Windows a file cannot be deleted while it is mapped, so deleting a file just read
+ * may fail until then.
+ */
+class MappedInputStream extends InputStream {
+
+	private static final int PREFETCH_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+	private static final ThreadPoolExecutor PREFETCH = new ThreadPoolExecutor(PREFETCH_THREADS, PREFETCH_THREADS,
+			30L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(PREFETCH_THREADS), runnable -> {
+				Thread thread = new Thread(runnable, "mapped-prefetch");
+				thread.setDaemon(true);
+				return thread;
+			}, new ThreadPoolExecutor.DiscardPolicy());
+
+	static {
+		PREFETCH.allowCoreThreadTimeOut(true);
+	}
+
+	private final FileChannel channel;
+	private final long size;
+	private final int windowSize;
+	private final boolean sequentialHint;
+	private MappedByteBuffer window;
+	private long windowStart = 0L;
+	private MappedByteBuffer nextWindow;
+
+	/**
+	 * @param filePath - File to read
+	 * @param windowSize - Size of each mapped window in bytes
+	 * @param sequentialHint - Load the next window in the background while the current one is read
+	 * @throws IOException
+	 */
+	MappedInputStream(Path filePath, int windowSize, boolean sequentialHint) throws IOException {
+		this.channel = FileChannel.open(filePath, StandardOpenOption.READ);
+		this.size = channel.size();
+		this.windowSize = windowSize;
+		this.sequentialHint = sequentialHint;
+		this.window = map(0L);
+		prefetchNextWindow();
+	}
+
+	private MappedByteBuffer map(long start) throws IOException {
+		long length = Math.min(windowSize, size - start);
+		return length > 0 ? channel.map(FileChannel.MapMode.READ_ONLY, start, length) : null;
+	}
+
+	private void prefetchNextWindow() throws IOException {
+		if (!sequentialHint || window == null) {
+			nextWindow = null;
+			return;
+		}
+		MappedByteBuffer next = map(windowStart + window.capacity());
+		if (next != null) {
+			PREFETCH.execute(next::load);
+		}
+		nextWindow = next;
+	}
+
+	/**
+	 * Move to the next window once the current one is used up.
+	 * @return false at End of File
+	 */
+	private boolean ensureWindow() throws IOException {
+		if (window == null) {
+			return false;
+		}
+		if (window.hasRemaining()) {
+			return true;
+		}
+		windowStart += window.capacity();
+		window = sequentialHint ? nextWindow : map(windowStart);
+		prefetchNextWindow();
+		return window != null;
+	}
+
+	@Override
+	public int read() throws IOException {
+		return ensureWindow() ? window.get() & 0xff : -1;
+	}
+
+	@Override
+	public int read(byte[] bytes, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+		if (!ensureWindow()) {
+			return -1;
+		}
+		int count = Math.min(length, window.remaining());
+		window.get(bytes, offset, count);
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return window == null ? 0 : window.remaining();
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		nextWindow = null;
+		channel.close();
+	}
+}
@@ -0,0 +1,218 @@
+package com.file.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Long-lived writer for the merged lines.
+ * Lines are encoded as UTF-8 straight into one large direct buffer, which is written to the channel only
+ * when it is full, so the file is opened once and written in large sequential chunks.
+ * ASCII lines are copied character by character without any allocation.
+ */
+class OutputSink implements Closeable {
+
+	private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+	private final boolean syncOnClose;
+	private final Consumer<ByteBuffer> release;
+	private final byte[] digits = new byte[20];
+	private long bytesWritten = 0L;
+
+	/**
+	 * @param channel - Channel the lines are written to
+	 * @param bufferSize - Size of the write buffer in bytes
+	 * @param syncOnClose - Force the written data to the storage device when a FileChannel is closed
+	 */
+	OutputSink(WritableByteChannel channel, int bufferSize, boolean syncOnClose) {
+		this(channel, allocate(bufferSize), syncOnClose, buffer -> {
+		});
+	}
+
+	/**
+	 * Sink writing through a buffer owned by the caller, so a writer of many files reuses one buffer.
+	 * @param channel - Channel the lines are written to
+	 * @param buffer - Empty write buffer of at least 1024 bytes
+	 * @param syncOnClose - Force the written data to the storage device when a FileChannel is closed
+	 * @param release - Receives the buffer back once the sink is closed
+	 */
+	OutputSink(WritableByteChannel channel, ByteBuffer buffer, boolean syncOnClose, Consumer<ByteBuffer> release) {
+		this.channel = channel;
+		this.buffer = buffer;
+		this.syncOnClose = syncOnClose;
+		this.release = release;
+	}
+
+	/**
+	 * @return Direct write buffer of bufferSize bytes, at least 1024
+	 */
+	static ByteBuffer allocate(int bufferSize) {
+		return ByteBuffer.allocateDirect(Math.max(bufferSize, 1024));
+	}
+
+	/**
+	 * Create (or truncate) a file and open a sink on it.
+	 * @param file - File to write
+	 * @param bufferSize - Size of the write buffer in bytes
+	 * @param syncOnClose - Force the written data to the storage device on close
+	 * @return OutputSink writing to the file
+	 * @throws IOException
+	 */
+	static OutputSink create(Path file, int bufferSize, boolean syncOnClose) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		return new OutputSink(channel, bufferSize, syncOnClose);
+	}
+
+	/**
+	 * Write a line followed by the line separator.
+	 * @param line - Line to write
+	 * @throws IOException
+	 */
+	void write(String line) throws IOException {
+		put(line);
+		endLine();
+	}
+
+	/**
+	 * Write a line, a tab and the number of times the line occurred, followed by the line separator.
+	 * @param line - Line to write
+	 * @param count - Number of occurrences of the line
+	 * @throws IOException
+	 */
+	void write(String line, long count) throws IOException {
+		put(line);
+		putCount(count);
+		endLine();
+	}
+
+	/**
+	 * Write an already encoded line followed by the line separator.
+	 * @param bytes - Array holding the line
+	 * @param offset - Start of the line in the array
+	 * @param length - Length of the line in bytes
+	 * @throws IOException
+	 */
+	void write(byte[] bytes, int offset, int length) throws IOException {
+		put(bytes, offset, length);
+		endLine();
+	}
+
+	/**
+	 * Write an already encoded line, a tab and the number of times the line occurred, followed by the line separator.
+	 * @param bytes - Array holding the line
+	 * @param offset - Start of the line in the array
+	 * @param length - Length of the line in bytes
+	 * @param count - Number of occurrences of the line
+	 * @throws IOException
+	 */
+	void write(byte[] bytes, int offset, int length, long count) throws IOException {
+		put(bytes, offset, length);
+		putCount(count);
+		endLine();
+	}
+
+	private void put(String line) throws IOException {
+		int length = line.length();
+		if (length > buffer.remaining()) {
+			flush();
+			if (length > buffer.remaining()) {
+				putEncoded(line);
+				return;
+			}
+		}
+		int start = buffer.position();
+		for (int i = 0; i < length; i++) {
+			char c = line.charAt(i);
+			if (c >= 0x80) {
+				buffer.position(start);
+				putEncoded(line);
+				return;
+			}
+			buffer.put((byte) c);
+		}
+	}
+
+	private void putEncoded(String line) throws IOException {
+		byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+		put(bytes, 0, bytes.length);
+	}
+
+	private void put(byte[] bytes, int offset, int length) throws IOException {
+		while (length > buffer.remaining()) {
+			int chunk = buffer.remaining();
+			buffer.put(bytes, offset, chunk);
+			offset += chunk;
+			length -= chunk;
+			flush();
+		}
+		buffer.put(bytes, offset, length);
+	}
+
+	/**
+	 * Write a tab and the decimal digits of the count, without creating a String.
+	 */
+	private void putCount(long count) throws IOException {
+		if (buffer.remaining() < 1 + digits.length) {
+			flush();
+		}
+		buffer.put((byte) '\t');
+		int start = digits.length;
+		do {
+			digits[--start] = (byte) ('0' + count % 10);
+			count /= 10;
+		} while (count > 0);
+		buffer.put(digits, start, digits.length - start);
+	}
+
+	private void endLine() throws IOException {
+		if (buffer.remaining() < LINE_SEPARATOR.length) {
+			flush();
+		}
+		buffer.put(LINE_SEPARATOR);
+	}
+
+	/**
+	 * Write the buffered bytes to the channel.
+	 * @throws IOException
+	 */
+	void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			bytesWritten += channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * @return Number of bytes written to the channel so far
+	 */
+	long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+			if (syncOnClose && channel instanceof FileChannel fileChannel) {
+				fileChannel.force(true);
+			}
+		} finally {
+			try {
+				channel.close();
+			} finally {
+				buffer.clear();
+				release.accept(buffer);
+			}
+		}
+	}
+}
@@ -0,0 +1,157 @@
+package com.file.service;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Sorts records by a cached 8 byte key prefix, compared as an unsigned long, and falls back to a full comparison
+ * only for records whose prefixes are equal.
+ * The prefix holds the first bytes of the key in big-endian order (zero padded), so comparing two prefixes as
+ * unsigned longs gives the order of those bytes and a single comparison settles most pairs of records, without
+ * following a reference into the line. Records are sorted with an MSD radix sort on the prefix, one byte per
+ * pass, and small buckets with an insertion sort; records left with equal prefixes are sorted with the full
+ * comparison, skipping the bytes the prefix already covered where possible.
+ */
+final class PrefixSorter {
+
+	/**
+	 * Full comparison of two records with equal prefixes.
+	 */
+	interface TieBreaker {
+		int compare(int a, int b);
+	}
+
+	private static final int INSERTION_SORT_THRESHOLD = 32;
+	private static final VarHandle BIG_ENDIAN_LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+	private PrefixSorter() {
+	}
+
+	/**
+	 * Sort record numbers by prefix, then by the tie breaker.
+	 * @param prefixes - Prefix of every record, indexed by record number
+	 * @param order - Record numbers to sort, sorted in place
+	 * @param buffer - Scratch array at least as long as the records to sort
+	 * @param count - Number of records to sort
+	 * @param ties - Full comparison of records with equal prefixes
+	 */
+	static void sort(long[] prefixes, int[] order, int[] buffer, int count, TieBreaker ties) {
+		int[][] counts = new int[Long.BYTES][257];
+		radixSort(prefixes, order, buffer, 0, count, 0, counts, ties);
+	}
+
+	private static void radixSort(long[] prefixes, int[] order, int[] buffer, int low, int high, int level,
+			int[][] counts, TieBreaker ties) {
+		while (true) {
+			if (high - low < INSERTION_SORT_THRESHOLD) {
+				insertionSort(prefixes, order, low, high, ties);
+				return;
+			}
+			if (level == Long.BYTES) {
+				// the prefixes are all equal, only the tie breaker can order the records
+				mergeSort(order, buffer, low, high, ties);
+				return;
+			}
+			int shift = 56 - 8 * level;
+			int[] count = counts[level];
+			Arrays.fill(count, 0);
+			for (int i = low; i < high; i++) {
+				count[(int) (prefixes[order[i]] >>> shift & 0xff) + 1]++;
+			}
+			if (count[(int) (prefixes[order[low]] >>> shift & 0xff) + 1] == high - low) {
+				// every record has the same byte here, move on to the next one
+				level++;
+				continue;
+			}
+			for (int b = 0; b < 256; b++) {
+				count[b + 1] += count[b];
+			}
+			for (int i = low; i < high; i++) {
+				buffer[low + count[(int) (prefixes[order[i]] >>> shift & 0xff)]++] = order[i];
+			}
+			System.arraycopy(buffer, low, order, low, high - low);
+			for (int b = 0; b < 256; b++) {
+				int start = low + (b == 0 ? 0 : count[b - 1]);
+				int end = low + count[b];
+				if (end - start > 1) {
+					radixSort(prefixes, order, buffer, start, end, level + 1, counts, ties);
+				}
+			}
+			return;
+		}
+	}
+
+	private static int compare(long[] prefixes, int a, int b, TieBreaker ties) {
+		if (prefixes == null) {
+			return ties.compare(a, b);
+		}
+		int result = Long.compareUnsigned(prefixes[a], prefixes[b]);
+		return result != 0 ? result : ties.compare(a, b);
+	}
+
+	/**
+	 * Insertion sort by prefix then tie breaker, or by tie breaker only when prefixes is null.
+	 */
+	private static void insertionSort(long[] prefixes, int[] order, int low, int high, TieBreaker ties) {
+		for (int i = low + 1; i < high; i++) {
+			int record = order[i];
+			int j = i - 1;
+			while (j >= low && compare(prefixes, order[j], record, ties) > 0) {
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = record;
+		}
+	}
+
+	private static void mergeSort(int[] order, int[] buffer, int low, int high, TieBreaker ties) {
+		if (high - low < INSERTION_SORT_THRESHOLD) {
+			insertionSort(null, order, low, high, ties);
+			return;
+		}
+		int middle = (low + high) >>> 1;
+		mergeSort(order, buffer, low, middle, ties);
+		mergeSort(order, buffer, middle, high, ties);
+		if (ties.compare(order[middle - 1], order[middle]) <= 0) {
+			return;
+		}
+		System.arraycopy(order, low, buffer, low, high - low);
+		int left = low;
+		int right = middle;
+		for (int i = low; i < high; i++) {
+			if (left < middle && (right >= high || ties.compare(buffer[left], buffer[right]) <= 0)) {
+				order[i] = buffer[left++];
+			} else {
+				order[i] = buffer[right++];
+			}
+		}
+	}
+
+	/**
+	 * First 8 bytes of a line in big-endian order, zero padded.
+	 */
+	static long bytePrefix(byte[] bytes, int offset, int length) {
+		if (length >= Long.BYTES) {
+			return (long) BIG_ENDIAN_LONG.get(bytes, offset);
+		}
+		long prefix = 0L;
+		for (int i = 0; i < length; i++) {
+			prefix |= (bytes[offset + i] & 0xffL) << (56 - 8 * i);
+		}
+		return prefix;
+	}
+
+	/**
+	 * First 4 characters of a String in big-endian order, zero padded, giving the order of String.compareTo.
+	 */
+	static long charPrefix(String line) {
+		long prefix = 0L;
+		int end = Math.min(line.length(), 4);
+		for (int i = 0; i < end; i++) {
+			prefix |= (long) line.charAt(i) << (48 - 16 * i);
+		}
+		return prefix;
+	}
+}
@@ -0,0 +1,141 @@
+package com.file.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Double buffered InputStream reading ahead on a virtual thread.
+ * While the caller reads one buffer, the next one is filled in the background, so with hundreds of files
+ * merged at once every file has its next buffer in flight and the merge only waits when a buffer has really
+ * not arrived yet. Each wait is counted in the ReadAheadStatistics.
+ */
+class ReadAheadInputStream extends InputStream {
+
+	/**
+	 * Virtual threads blocked on file reads ahead of the merge, one per stream at most.
+	 */
+	static final ExecutorService READ_THREADS = Executors.newVirtualThreadPerTaskExecutor();
+
+	private final InputStream in;
+	private final ReadAheadStatistics statistics;
+	private byte[] current;
+	private byte[] spare;
+	private int position = 0;
+	private int limit = 0;
+	private CompletableFuture<Integer> next;
+
+	/**
+	 * @param in - Stream to read ahead
+	 * @param bufferSize - Size of each of the two buffers in bytes
+	 * @param statistics - Counters of the buffers read and of the waits
+	 */
+	ReadAheadInputStream(InputStream in, int bufferSize, ReadAheadStatistics statistics) {
+		this.in = in;
+		this.statistics = statistics;
+		this.current = new byte[bufferSize];
+		this.spare = new byte[bufferSize];
+		this.next = readAhead();
+	}
+
+	/**
+	 * Fill the spare buffer on a virtual thread.
+	 * Completes with the number of bytes read, or -1 at End of File.
+	 */
+	private CompletableFuture<Integer> readAhead() {
+		byte[] target = spare;
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				int filled = 0;
+				while (filled < target.length) {
+					int read = in.read(target, filled, target.length - filled);
+					if (read < 0) {
+						break;
+					}
+					filled += read;
+				}
+				return filled > 0 ? filled : -1;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}, READ_THREADS);
+	}
+
+	/**
+	 * Swap in the buffer read ahead and start filling the other one.
+	 * @return false at End of File
+	 */
+	private boolean nextBuffer() throws IOException {
+		if (next == null) {
+			return false;
+		}
+		int length;
+		try {
+			if (next.isDone()) {
+				length = next.join();
+			} else {
+				long start = System.nanoTime();
+				length = next.join();
+				statistics.recordWait(System.nanoTime() - start);
+			}
+		} catch (CompletionException e) {
+			next = null;
+			throw CompressedRunChannel.unwrap(e, "Error while reading temporary file");
+		}
+		if (length < 0) {
+			next = null;
+			return false;
+		}
+		statistics.recordBuffer();
+		byte[] swap = current;
+		current = spare;
+		spare = swap;
+		position = 0;
+		limit = length;
+		next = length < current.length ? CompletableFuture.completedFuture(-1) : readAhead();
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		while (position == limit) {
+			if (!nextBuffer()) {
+				return -1;
+			}
+		}
+		return current[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] bytes, int offset, int length) throws IOException {
+		if (length == 0) {
+			return 0;
+		}
+		while (position == limit) {
+			if (!nextBuffer()) {
+				return -1;
+			}
+		}
+		int count = Math.min(length, limit - position);
+		System.arraycopy(current, position, bytes, offset, count);
+		position += count;
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (next != null) {
+			try {
+				next.join();
+			} catch (CompletionException e) {
+				// the buffer is discarded anyway
+			}
+			next = null;
+		}
+		in.close();
+	}
+}
@@ -0,0 +1,57 @@
+package com.file.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the read-ahead of sorted files during the merge.
+ * The merge only waits on I/O when the next buffer of a file has not been read yet when it is needed;
+ * a high share of waits means the merge is I/O bound and larger read buffers may help.
+ */
+public class ReadAheadStatistics {
+
+	private final AtomicLong buffersRead = new AtomicLong();
+	private final AtomicLong waits = new AtomicLong();
+	private final AtomicLong waitNanos = new AtomicLong();
+
+	/**
+	 * @return Number of buffers handed to the merge
+	 */
+	public long getBuffersRead() {
+		return buffersRead.get();
+	}
+
+	/**
+	 * @return Number of times the merge had to wait for a buffer still being read
+	 */
+	public long getWaits() {
+		return waits.get();
+	}
+
+	/**
+	 * @return Total time in nanoseconds the merge spent waiting for buffers
+	 */
+	public long getWaitNanos() {
+		return waitNanos.get();
+	}
+
+	void recordBuffer() {
+		buffersRead.incrementAndGet();
+	}
+
+	void recordWait(long nanos) {
+		waits.incrementAndGet();
+		waitNanos.addAndGet(nanos);
+	}
+
+	void reset() {
+		buffersRead.set(0L);
+		waits.set(0L);
+		waitNanos.set(0L);
+	}
+
+	@Override
+	public String toString() {
+		return "buffers read: " + getBuffersRead() + ", waits: " + getWaits() + ", wait time: "
+				+ getWaitNanos() / 1_000_000 + " ms";
+	}
+}
@@ -0,0 +1,42 @@
+package com.file.service;
+
+import java.io.IOException;
+
+/**
+ * Block of lines filled during run generation, then sorted and written as one sorted temporary file.
+ * A block tracks the heap it uses and refuses lines once adding one would take it over its memory limit,
+ * so a block never grows beyond its share of the memory budget. An empty block accepts any line, however long.
+ * Blocks are reused: once written, clear() empties them and keeps their arrays for the next block.
+ */
+interface RecordBlock {
+
+	/**
+	 * Add a line given as UTF-8 bytes.
+	 * @return false if the block is full
+	 */
+	boolean add(byte[] bytes, int offset, int length);
+
+	boolean isEmpty();
+
+	/**
+	 * @return Number of lines in the block
+	 */
+	int size();
+
+	/**
+	 * @return Estimated heap used by the block in bytes, including the memory needed to sort it
+	 */
+	long footprint();
+
+	void sort();
+
+	/**
+	 * Write the lines in sorted order, call sort() first.
+	 * @param output - Sink the lines are written to
+	 * @param duplicates - Keep, drop or count equal lines, which are next to each other once sorted
+	 * @throws IOException
+	 */
+	void writeTo(OutputSink output, Duplicates duplicates) throws IOException;
+
+	void clear();
+}
@@ -0,0 +1,201 @@
+package com.file.service;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Replacement selection run generation.
+ * Lines are kept in a heap ordered by (run number, line). The smallest line of the current run is written out
+ * to make room for each new line; a new line smaller than the last line written cannot join the current run, so
+ * it is tagged for the next run. On random input the runs average twice the memory limit, on sorted or nearly
+ * sorted input (appended logs, incremental exports) the whole input becomes a single run.
+ * The heap holds as many lines as fit the memory limit, measured with the footprint estimate given for each line.
+ * Equal lines leave the heap one after another, so they can be combined into one line and a count before they
+ * are written.
+ *
+ * @param <T> - Type of the lines, String or the raw bytes of the line
+ */
+class ReplacementSelection<T> {
+
+	/**
+	 * Opens the temporary file of the next run.
+	 */
+	interface RunOpener {
+		OutputSink open() throws IOException;
+	}
+
+	/**
+	 * Writes one line to a run, with the number of times it occurred when duplicates are combined.
+	 */
+	interface LineWriter<T> {
+		void write(OutputSink output, T line, long count) throws IOException;
+	}
+
+	private final Comparator<T> comparator;
+	private final long memoryLimit;
+	private final LineWriter<T> writer;
+	private final RunOpener runOpener;
+	private final boolean combineDuplicates;
+	private Object[] lines = new Object[1024];
+	private int[] runs = new int[1024];
+	private int[] footprints = new int[1024];
+	private int count = 0;
+	private long used = 0L;
+	private int currentRun = 0;
+	private int runCount = 0;
+	private OutputSink output;
+	private T lastWritten;
+	private long lastCount = 0L;
+
+	/**
+	 * @param comparator - Order of the lines
+	 * @param memoryLimit - Maximum estimated heap of the lines held at once
+	 * @param writer - Writes a line to a run
+	 * @param runOpener - Opens the temporary file of each new run
+	 * @param combineDuplicates - Write equal lines of a run once, with the number of times they occurred
+	 */
+	ReplacementSelection(Comparator<T> comparator, long memoryLimit, LineWriter<T> writer, RunOpener runOpener,
+			boolean combineDuplicates) {
+		this.comparator = comparator;
+		this.memoryLimit = memoryLimit;
+		this.writer = writer;
+		this.runOpener = runOpener;
+		this.combineDuplicates = combineDuplicates;
+	}
+
+	/**
+	 * Add a line read from the input, writing out the smallest lines until it fits the memory limit.
+	 * @param line - Line read from the input
+	 * @param footprint - Estimated heap of the line, including its slot in the heap
+	 * @throws IOException
+	 */
+	void add(T line, int footprint) throws IOException {
+		while (count > 0 && used + footprint > memoryLimit) {
+			writeSmallest();
+		}
+		int run = lastWritten != null && comparator.compare(line, lastWritten) < 0 ? currentRun + 1 : currentRun;
+		push(run, line, footprint);
+		used += footprint;
+	}
+
+	/**
+	 * Write out every line still held and close the last run.
+	 * @throws IOException
+	 */
+	void finish() throws IOException {
+		while (count > 0) {
+			writeSmallest();
+		}
+		if (output != null) {
+			writeLast();
+			output.close();
+			output = null;
+		}
+	}
+
+	/**
+	 * @return Number of runs written
+	 */
+	int runCount() {
+		return runCount;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void writeSmallest() throws IOException {
+		int run = runs[0];
+		T line = (T) lines[0];
+		used -= footprints[0];
+		pop();
+		if (output != null && run == currentRun && combineDuplicates && comparator.compare(line, lastWritten) == 0) {
+			lastCount++;
+			return;
+		}
+		if (output != null) {
+			writeLast();
+		}
+		if (output == null || run != currentRun) {
+			if (output != null) {
+				output.close();
+			}
+			output = runOpener.open();
+			currentRun = run;
+			runCount++;
+		}
+		lastWritten = line;
+		lastCount = 1L;
+		if (!combineDuplicates) {
+			writeLast();
+		}
+	}
+
+	/**
+	 * Write the last line taken from the heap, once no equal line can follow it.
+	 */
+	private void writeLast() throws IOException {
+		if (lastCount > 0) {
+			writer.write(output, lastWritten, lastCount);
+			lastCount = 0L;
+		}
+	}
+
+	private void push(int run, T line, int footprint) {
+		if (count == lines.length) {
+			lines = Arrays.copyOf(lines, count * 2);
+			runs = Arrays.copyOf(runs, count * 2);
+			footprints = Arrays.copyOf(footprints, count * 2);
+		}
+		int child = count++;
+		while (child > 0) {
+			int parent = (child - 1) >>> 1;
+			if (!less(run, line, runs[parent], lines[parent])) {
+				break;
+			}
+			lines[child] = lines[parent];
+			runs[child] = runs[parent];
+			footprints[child] = footprints[parent];
+			child = parent;
+		}
+		lines[child] = line;
+		runs[child] = run;
+		footprints[child] = footprint;
+	}
+
+	private void pop() {
+		int run = runs[--count];
+		int footprint = footprints[count];
+		Object line = lines[count];
+		lines[count] = null;
+		if (count == 0) {
+			return;
+		}
+		int parent = 0;
+		while (true) {
+			int child = 2 * parent + 1;
+			if (child >= count) {
+				break;
+			}
+			if (child + 1 < count && less(runs[child + 1], lines[child + 1], runs[child], lines[child])) {
+				child++;
+			}
+			if (!less(runs[child], lines[child], run, line)) {
+				break;
+			}
+			lines[parent] = lines[child];
+			runs[parent] = runs[child];
+			footprints[parent] = footprints[child];
+			parent = child;
+		}
+		lines[parent] = line;
+		runs[parent] = run;
+		footprints[parent] = footprint;
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean less(int runA, Object lineA, int runB, Object lineB) {
+		if (runA != runB) {
+			return runA < runB;
+		}
+		return comparator.compare((T) lineA, (T) lineB) < 0;
+	}
+}
@@ -0,0 +1,47 @@
+package com.file.service;
+
+import java.io.IOException;
+
+/**
+ * Block compression codec for the sorted temporary files.
+ * Temporary files are cut into blocks that are compressed independently, so implementations only need to
+ * compress and decompress one block held in memory. Implementations must be safe to use from several
+ * threads at once.
+ */
+public interface RunCodec {
+
+	/**
+	 * @return Extension appended to the names of temporary files compressed with this codec, for example ".lz4"
+	 */
+	String fileExtension();
+
+	/**
+	 * @param length - Length of an uncompressed block
+	 * @return Largest possible compressed length of the block
+	 */
+	int maxCompressedLength(int length);
+
+	/**
+	 * Compress a block.
+	 * @param source - Array holding the block
+	 * @param sourceOffset - Start of the block
+	 * @param length - Length of the block
+	 * @param target - Array receiving the compressed block, with room for maxCompressedLength(length) bytes
+	 * @param targetOffset - Start of the compressed block in target
+	 * @return Length of the compressed block
+	 */
+	int compress(byte[] source, int sourceOffset, int length, byte[] target, int targetOffset);
+
+	/**
+	 * Decompress a block.
+	 * @param source - Array holding the compressed block
+	 * @param sourceOffset - Start of the compressed block
+	 * @param length - Length of the compressed block
+	 * @param target - Array receiving the block
+	 * @param targetOffset - Start of the block in target
+	 * @param originalLength - Length of the uncompressed block
+	 * @throws IOException - if the compressed block is corrupt
+	 */
+	void decompress(byte[] source, int sourceOffset, int length, byte[] target, int targetOffset, int originalLength)
+			throws IOException;
+}
@@ -0,0 +1,180 @@
+package com.file.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Divides the key space of sorted files into ranges that can be merged independently.
+ * Splitter lines are sampled at evenly spaced offsets over all the files, so larger files give more samples,
+ * and the quantiles of the sorted samples become the boundaries of the ranges. Each file is then binary
+ * searched for the offset of its first line not smaller than every boundary.
+ * Lines equal to a boundary always fall into the same range, so duplicates can still be removed per range.
+ * The counts of temporary files of counted lines are left out of the comparisons.
+ */
+class RunPartitioner {
+
+	private static final int SAMPLES_PER_RANGE = 64;
+	private static final int PROBE_SIZE = 256;
+
+	private final Comparator<byte[]> order;
+	private final Predicate<Path> countedRun;
+
+	/**
+	 * @param order - Order of the lines of the sorted files, given as raw bytes without line separator
+	 * @param countedRun - Whether a sorted file holds counted lines
+	 */
+	RunPartitioner(Comparator<byte[]> order, Predicate<Path> countedRun) {
+		this.order = order;
+		this.countedRun = countedRun;
+	}
+
+	/**
+	 * Boundaries of the key ranges: every range holds the lines from one boundary (inclusive) to the next.
+	 * @param runs - Sorted files
+	 * @param ranges - Number of ranges wanted
+	 * @return Distinct boundaries in sorted order, at most ranges - 1 of them
+	 * @throws IOException
+	 */
+	List<byte[]> sampleSplitters(List<Path> runs, int ranges) throws IOException {
+		long totalSize = 0L;
+		for (Path run : runs) {
+			totalSize += Files.size(run);
+		}
+		List<byte[]> samples = new ArrayList<>();
+		long stride = Math.max(1L, totalSize / ((long) ranges * SAMPLES_PER_RANGE));
+		for (Path run : runs) {
+			boolean counted = countedRun.test(run);
+			try (FileChannel channel = FileChannel.open(run, StandardOpenOption.READ)) {
+				long size = channel.size();
+				for (long position = stride / 2; position < size; position += stride) {
+					long start = lineStart(channel, size, position);
+					if (start < size) {
+						samples.add(lineAt(channel, size, start, counted));
+					}
+				}
+			}
+		}
+		samples.sort(order);
+		List<byte[]> splitters = new ArrayList<>();
+		for (int i = 1; i < ranges && !samples.isEmpty(); i++) {
+			byte[] splitter = samples.get((int) ((long) samples.size() * i / ranges));
+			if (splitters.isEmpty() || order.compare(splitters.get(splitters.size() - 1), splitter) < 0) {
+				splitters.add(splitter);
+			}
+		}
+		return splitters;
+	}
+
+	/**
+	 * Offsets of the ranges in a sorted file.
+	 * @param run - Sorted file
+	 * @param splitters - Boundaries returned by sampleSplitters
+	 * @return splitters.size() + 2 offsets: 0, the start of the first line not smaller than each boundary, and
+	 * the size of the file
+	 * @throws IOException
+	 */
+	long[] rangeOffsets(Path run, List<byte[]> splitters) throws IOException {
+		boolean counted = countedRun.test(run);
+		try (FileChannel channel = FileChannel.open(run, StandardOpenOption.READ)) {
+			long size = channel.size();
+			long[] offsets = new long[splitters.size() + 2];
+			for (int i = 0; i < splitters.size(); i++) {
+				offsets[i + 1] = lowerBound(channel, size, splitters.get(i), offsets[i], counted);
+			}
+			offsets[offsets.length - 1] = size;
+			return offsets;
+		}
+	}
+
+	/**
+	 * Binary search over byte offsets for the start of the first line not smaller than the key.
+	 * The start of the line at or after an offset only grows with the offset, and so does its line.
+	 */
+	private long lowerBound(FileChannel channel, long size, byte[] key, long from, boolean counted) throws IOException {
+		long low = from;
+		long high = size;
+		while (low < high) {
+			long middle = (low + high) >>> 1;
+			long start = lineStart(channel, size, middle);
+			if (start >= size || order.compare(lineAt(channel, size, start, counted), key) >= 0) {
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+		return lineStart(channel, size, low);
+	}
+
+	/**
+	 * Start of the first line beginning at or after the offset, or the size of the file if there is none.
+	 */
+	private static long lineStart(FileChannel channel, long size, long position) throws IOException {
+		if (position == 0) {
+			return 0;
+		}
+		ByteBuffer probe = ByteBuffer.allocate(PROBE_SIZE);
+		long scan = position - 1;
+		while (scan < size) {
+			probe.clear();
+			int count = channel.read(probe, scan);
+			if (count <= 0) {
+				break;
+			}
+			for (int i = 0; i < count; i++) {
+				if (probe.get(i) == '\n') {
+					return scan + i + 1;
+				}
+			}
+			scan += count;
+		}
+		return size;
+	}
+
+	/**
+	 * Bytes of the line starting at the offset, without its line separator, nor its count in a file of counted lines.
+	 */
+	private static byte[] lineAt(FileChannel channel, long size, long start, boolean counted) throws IOException {
+		byte[] line = new byte[PROBE_SIZE];
+		int length = 0;
+		ByteBuffer probe = ByteBuffer.allocate(PROBE_SIZE);
+		long scan = start;
+		while (scan < size) {
+			probe.clear();
+			int count = channel.read(probe, scan);
+			if (count <= 0) {
+				break;
+			}
+			int end = 0;
+			while (end < count && probe.get(end) != '\n') {
+				end++;
+			}
+			if (length + end > line.length) {
+				line = Arrays.copyOf(line, Math.max(length + end, line.length * 2));
+			}
+			probe.get(0, line, length, end);
+			length += end;
+			if (end < count) {
+				break;
+			}
+			scan += count;
+		}
+		if (length > 0 && line[length - 1] == '\r') {
+			length--;
+		}
+		if (counted) {
+			while (length > 0 && line[--length] != '\t') {
+				// drop the digits of the count
+			}
+		}
+		return Arrays.copyOf(line, length);
+	}
+}
@@ -0,0 +1,20 @@
+package com.file.service;
+
+/**
+ * How run generation cuts the input into sorted temporary files.
+ */
+public enum RunStrategy {
+
+	/**
+	 * Fill a block up to its share of the memory budget, sort it and write it out. Blocks are sorted in
+	 * parallel, each temporary file holds about one block.
+	 */
+	BLOCK_SORT,
+
+	/**
+	 * Stream the lines through a heap holding the whole memory budget, writing out the smallest line that can
+	 * still extend the current temporary file. Temporary files average twice the memory budget on random input
+	 * and sorted input becomes a single file, at the cost of sorting on one thread.
+	 */
+	REPLACEMENT_SELECTION
+}
@@ -0,0 +1,232 @@
+package com.file.service;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Non-interactive command line of FileMergeAndSortService, for scripts and batch schedulers.
+ * Sorts the files of an input directory into output.dat, or standard input into standard output, with the
+ * settings of FileMergeSort given as flags. Messages go to standard error, so standard output only carries data.
+ * Exit codes: 0 when the sort completed, 1 when it failed, 2 for invalid arguments.
+ */
+final class SortCommand {
+
+	static final int COMPLETED = 0;
+	static final int FAILED = 1;
+	static final int INVALID_ARGUMENTS = 2;
+
+	static final String USAGE = String.join(System.lineSeparator(),
+			"Usage: FileMergeAndSortService [options]",
+			"Without options, the directories are asked for interactively.",
+			"  --input DIR              sort the files of DIR, - (the default) sorts standard input",
+			"  --output DIR             write DIR/output.dat, required with --input; standard input is sorted",
+			"                           to standard output",
+			"  --temp DIR               directory of the temporary files, required with --input, defaults to",
+			"                           java.io.tmpdir for standard input. Every file inside it is deleted",
+			"                           once a sort of an input directory is over",
+			"  --unique                 write equal lines once",
+			"  --count                  write every distinct line once, followed by a tab and its count",
+			"  --bytes                  sort raw UTF-8 bytes instead of Strings",
+			"  --delimiter C            field delimiter of the keys, defaults to tab",
+			"  --key SPEC               sort key, repeatable: a field index from 0, or line, optionally followed",
+			"                           by : and n (integer), g (floating point), d (decimal), i (ignore case)",
+			"                           and r (descending), for example --key 2:nr",
+			"  --memory SIZE            memory budget in bytes, with an optional k, m or g suffix",
+			"  --parallelism N          number of sorting threads",
+			"  --fan-in N               maximum number of files merged at once",
+			"  --replacement-selection  generate runs with replacement selection",
+			"  --compress               compress the temporary files with LZ4",
+			"  --read-ahead             read the sorted files ahead during the merge",
+			"  --presorted              the input files are already sorted",
+			"  --partitions N           merge N key ranges of the input directory in parallel",
+			"  --resumable              resume a failed sort of the input directory",
+			"  --metrics FILE           write the metrics of the sort as JSON",
+			"  --help                   print this help");
+
+	private final FileMergeSort sorter = new FileMergeSort();
+	private String inputDirectory = null;
+	private String outputDirectory = null;
+	private String tempDirectory = null;
+	private boolean removeDuplicates = false;
+	private boolean help = false;
+
+	private SortCommand() {
+	}
+
+	/**
+	 * Parse the arguments and run the sort.
+	 * @param args - Flags of the command line
+	 * @param in - Standard input, sorted unless an input directory is given
+	 * @param out - Standard output, receiving the sorted standard input
+	 * @param err - Standard error, receiving the messages
+	 * @return Exit code
+	 */
+	static int run(String[] args, InputStream in, OutputStream out, PrintStream err) {
+		SortCommand command;
+		try {
+			command = parse(args);
+		} catch (IllegalArgumentException | IllegalStateException e) {
+			err.println(e.getMessage());
+			err.println(USAGE);
+			return INVALID_ARGUMENTS;
+		}
+		if (command.help) {
+			err.println(USAGE);
+			return COMPLETED;
+		}
+		try {
+			if (command.inputDirectory != null) {
+				command.sorter.mergeAndSortFiles(command.inputDirectory, command.outputDirectory, command.tempDirectory,
+						command.removeDuplicates);
+			} else {
+				Path temp = Paths.get(command.tempDirectory != null ? command.tempDirectory : System.getProperty("java.io.tmpdir"));
+				StreamLineReader reader = new StreamLineReader(in, 64 * 1024);
+				command.sorter.sortStream(reader, reader::bytesRead, temp, Channels.newChannel(out), command.removeDuplicates);
+			}
+			err.println("MERGE COMPLETED");
+			err.println(command.sorter.getMetrics());
+			return COMPLETED;
+		} catch (Exception e) {
+			err.println("MERGE FAILED -- " + e.getMessage());
+			return FAILED;
+		}
+	}
+
+	/**
+	 * @throws IllegalArgumentException - for an unknown flag, a missing or invalid value, or missing directories
+	 */
+	static SortCommand parse(String[] args) {
+		SortCommand command = new SortCommand();
+		FileMergeSort sorter = command.sorter;
+		char delimiter = '\t';
+		List<SortKey> keys = new ArrayList<>();
+		List<String> directoryFlags = new ArrayList<>();
+		for (int i = 0; i < args.length; i++) {
+			String flag = args[i];
+			switch (flag) {
+			case "--help" -> command.help = true;
+			case "--unique" -> command.removeDuplicates = true;
+			case "--count" -> sorter.setCountDuplicates(true);
+			case "--bytes" -> sorter.setByteMode(true);
+			case "--replacement-selection" -> sorter.setRunStrategy(RunStrategy.REPLACEMENT_SELECTION);
+			case "--compress" -> sorter.setRunCodec(new Lz4BlockCodec());
+			case "--read-ahead" -> sorter.setReadAhead(true);
+			case "--presorted" -> {
+				sorter.setPresortedInputs(true);
+				directoryFlags.add(flag);
+			}
+			case "--resumable" -> {
+				sorter.setResumable(true);
+				directoryFlags.add(flag);
+			}
+			case "--input" -> {
+				String input = value(args, ++i, flag);
+				command.inputDirectory = "-".equals(input) ? null : input;
+			}
+			case "--output" -> command.outputDirectory = value(args, ++i, flag);
+			case "--temp" -> command.tempDirectory = value(args, ++i, flag);
+			case "--metrics" -> sorter.setMetricsFile(value(args, ++i, flag));
+			case "--memory" -> sorter.setMemoryBudget(size(value(args, ++i, flag)));
+			case "--parallelism" -> sorter.setParallelism(number(value(args, ++i, flag), flag));
+			case "--fan-in" -> sorter.setMaxFanIn(number(value(args, ++i, flag), flag));
+			case "--partitions" -> {
+				sorter.setMergePartitions(number(value(args, ++i, flag), flag));
+				directoryFlags.add(flag);
+			}
+			case "--delimiter" -> {
+				String value = value(args, ++i, flag);
+				if (value.length() != 1) {
+					throw new IllegalArgumentException("Delimiter must be a single character");
+				}
+				delimiter = value.charAt(0);
+			}
+			case "--key" -> keys.add(key(value(args, ++i, flag)));
+			default -> throw new IllegalArgumentException("Unknown option " + flag);
+			}
+		}
+		if (!keys.isEmpty()) {
+			sorter.setSortSpec(new SortSpec(delimiter, keys));
+		}
+		if (command.inputDirectory != null && (command.outputDirectory == null || command.tempDirectory == null)) {
+			throw new IllegalArgumentException("--input needs --output and --temp");
+		}
+		if (command.inputDirectory == null && command.outputDirectory != null) {
+			throw new IllegalArgumentException("--output needs --input, standard input is sorted to standard output");
+		}
+		if (command.inputDirectory == null && !directoryFlags.isEmpty()) {
+			throw new IllegalArgumentException(directoryFlags.get(0) + " needs --input, it does not apply to standard input");
+		}
+		return command;
+	}
+
+	private static String value(String[] args, int index, String flag) {
+		if (index >= args.length) {
+			throw new IllegalArgumentException(flag + " needs a value");
+		}
+		return args[index];
+	}
+
+	private static int number(String value, String flag) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(flag + " needs a number, not " + value);
+		}
+	}
+
+	/**
+	 * @param value - Number of bytes, with an optional k, m or g suffix
+	 */
+	static long size(String value) {
+		String lower = value.toLowerCase(Locale.ROOT);
+		int shift = switch (lower.isEmpty() ? ' ' : lower.charAt(lower.length() - 1)) {
+		case 'k' -> 10;
+		case 'm' -> 20;
+		case 'g' -> 30;
+		default -> 0;
+		};
+		String digits = shift == 0 ? lower : lower.substring(0, lower.length() - 1);
+		try {
+			return Math.multiplyExact(Long.parseLong(digits), 1L << shift);
+		} catch (NumberFormatException | ArithmeticException e) {
+			throw new IllegalArgumentException("Invalid memory size " + value);
+		}
+	}
+
+	/**
+	 * @param spec - Field index from 0 or line, optionally followed by : and the options n, g, d, i and r
+	 */
+	static SortKey key(String spec) {
+		int colon = spec.indexOf(':');
+		String target = colon < 0 ? spec : spec.substring(0, colon);
+		SortKey key;
+		if ("line".equals(target)) {
+			key = SortKey.line();
+		} else {
+			try {
+				key = SortKey.field(Integer.parseInt(target));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid key " + spec);
+			}
+		}
+		boolean descending = false;
+		for (char option : (colon < 0 ? "" : spec.substring(colon + 1)).toCharArray()) {
+			switch (option) {
+			case 'n' -> key = key.asLong();
+			case 'g' -> key = key.asDouble();
+			case 'd' -> key = key.asDecimal();
+			case 'i' -> key = key.ignoreCase();
+			case 'r' -> descending = true;
+			default -> throw new IllegalArgumentException("Invalid key option " + option + " in " + spec);
+			}
+		}
+		return descending ? key.descending() : key;
+	}
+}
@@ -0,0 +1,114 @@
+package com.file.service;
+
+/**
+ * One key of a SortSpec: a field of the line, or the whole line, and how its text is compared.
+ * Keys are immutable, every option returns a new key, for example SortKey.field(2).asLong().descending().
+ */
+public final class SortKey {
+
+	/**
+	 * How the text of a key is compared.
+	 */
+	public enum Type {
+		/** Unsigned UTF-8 bytes, the order of String.compareTo for text without supplementary characters. */
+		TEXT,
+		/** Integer that fits a long, such as -42. */
+		LONG,
+		/** Floating point number, such as 1.5e3. */
+		DOUBLE,
+		/** Decimal number of any precision, such as -1234567890.000001, compared exactly. */
+		DECIMAL
+	}
+
+	static final int WHOLE_LINE = -1;
+
+	private final int field;
+	private final Type type;
+	private final boolean ignoreCase;
+	private final boolean descending;
+
+	private SortKey(int field, Type type, boolean ignoreCase, boolean descending) {
+		this.field = field;
+		this.type = type;
+		this.ignoreCase = ignoreCase;
+		this.descending = descending;
+	}
+
+	/**
+	 * @return Key on the whole line, compared as text
+	 */
+	public static SortKey line() {
+		return new SortKey(WHOLE_LINE, Type.TEXT, false, false);
+	}
+
+	/**
+	 * @param index - Index of the field, 0 for the first one. Lines with fewer fields have an empty key.
+	 * @return Key on a field of the delimited line, compared as text
+	 */
+	public static SortKey field(int index) {
+		if (index < 0) {
+			throw new IllegalArgumentException("Field index cannot be negative");
+		}
+		return new SortKey(index, Type.TEXT, false, false);
+	}
+
+	/**
+	 * Compare the key as an integer. Keys that are not integers sort before every number.
+	 */
+	public SortKey asLong() {
+		return new SortKey(field, Type.LONG, false, descending);
+	}
+
+	/**
+	 * Compare the key as a floating point number. Keys that are not numbers sort before every number.
+	 */
+	public SortKey asDouble() {
+		return new SortKey(field, Type.DOUBLE, false, descending);
+	}
+
+	/**
+	 * Compare the key as an exact decimal number. Keys that are not numbers sort before every number.
+	 */
+	public SortKey asDecimal() {
+		return new SortKey(field, Type.DECIMAL, false, descending);
+	}
+
+	/**
+	 * Compare the text of the key with ASCII letters folded to lower case.
+	 */
+	public SortKey ignoreCase() {
+		if (type != Type.TEXT) {
+			throw new IllegalStateException("Only text keys can ignore case");
+		}
+		return new SortKey(field, type, true, descending);
+	}
+
+	/**
+	 * Sort the key from largest to smallest.
+	 */
+	public SortKey descending() {
+		return new SortKey(field, type, ignoreCase, true);
+	}
+
+	int getField() {
+		return field;
+	}
+
+	Type getType() {
+		return type;
+	}
+
+	boolean isIgnoreCase() {
+		return ignoreCase;
+	}
+
+	boolean isDescending() {
+		return descending;
+	}
+
+	@Override
+	public String toString() {
+		return (field == WHOLE_LINE ? "line" : "field " + field) + " " + type + (ignoreCase ? " ignore case" : "")
+				+ (descending ? " descending" : "");
+	}
+}
@@ -0,0 +1,38 @@
+package com.file.service;
+
+/**
+ * Receives the progress of a sort job. Every method has an empty default, so a listener only implements what
+ * it needs.
+ * Progress is reported in batches, after every sorted temporary file and every 64K merged lines, never per
+ * line. Run generation and partitioned merges report from their worker threads, so a listener must be
+ * thread-safe and return quickly.
+ */
+public interface SortListener {
+
+	/**
+	 * @param phase - Phase starting
+	 * @param metrics - Metrics of the job so far
+	 */
+	default void phaseStarted(SortPhase phase, SortMetrics metrics) {
+	}
+
+	/**
+	 * @param phase - Phase completed
+	 * @param metrics - Metrics of the job so far
+	 */
+	default void phaseCompleted(SortPhase phase, SortMetrics metrics) {
+	}
+
+	/**
+	 * @param metrics - Metrics of the job so far, with an updated estimate of the remaining time
+	 */
+	default void progress(SortMetrics metrics) {
+	}
+
+	/**
+	 * Called once the job has completed or failed, see SortMetrics.getStatus().
+	 * @param metrics - Final metrics of the job
+	 */
+	default void jobCompleted(SortMetrics metrics) {
+	}
+}
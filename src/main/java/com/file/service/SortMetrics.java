@@ -0,0 +1,398 @@
+package com.file.service;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of a sort job: time spent in each phase, records and bytes read, sorted temporary files written,
+ * merge passes, bytes written, time spent waiting for a free block or worker, read-ahead waits, garbage
+ * collection during the job and an estimate of the remaining time.
+ * Counters are updated in batches (per input file, block, temporary file or 64K merged lines), never per line,
+ * and can be read at any time from another thread, through JMX or by a SortListener.
+ * The garbage collection figures are the collection time and count reported by the JVM collectors during the
+ * job. They are not pause times: for concurrent collectors such as G1 and ZGC the time includes concurrent cycles
+ * run next to the application threads.
+ */
+public class SortMetrics implements SortMetricsMXBean {
+
+	private static final String RUNNING = "running";
+	private static final String COMPLETED = "completed";
+	private static final String FAILED = "failed";
+	private static final String IDLE = "idle";
+
+	private final ReadAheadStatistics readAheadStatistics;
+	private final AtomicLong[] phaseNanos = new AtomicLong[SortPhase.values().length];
+	private final AtomicLong bytesRead = new AtomicLong();
+	private final AtomicLong recordsRead = new AtomicLong();
+	private final AtomicLong runCount = new AtomicLong();
+	private final AtomicLong runBytes = new AtomicLong();
+	private final AtomicLong minRunBytes = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong maxRunBytes = new AtomicLong();
+	private final AtomicLong mergePasses = new AtomicLong();
+	private final AtomicLong mergedFiles = new AtomicLong();
+	private final AtomicLong recordsMerged = new AtomicLong();
+	private final AtomicLong outputBytes = new AtomicLong();
+	private final AtomicLong queueWaitNanos = new AtomicLong();
+	private volatile String status = IDLE;
+	private volatile SortPhase phase;
+	private volatile long phaseStartNanos;
+	private volatile long startNanos;
+	private volatile long endNanos;
+	private volatile long inputBytes;
+	private volatile int fanIn;
+	private volatile long expectedMergePasses;
+	private volatile long gcStartMillis;
+	private volatile long gcStartCount;
+	private volatile long gcMillis;
+	private volatile long gcCount;
+
+	SortMetrics(ReadAheadStatistics readAheadStatistics) {
+		this.readAheadStatistics = readAheadStatistics;
+		for (int i = 0; i < phaseNanos.length; i++) {
+			phaseNanos[i] = new AtomicLong();
+		}
+	}
+
+	/**
+	 * Reset every counter and start timing a new job.
+	 */
+	void start() {
+		for (AtomicLong nanos : phaseNanos) {
+			nanos.set(0L);
+		}
+		for (AtomicLong counter : new AtomicLong[] {bytesRead, recordsRead, runCount, runBytes, maxRunBytes, mergePasses,
+				mergedFiles, recordsMerged, outputBytes, queueWaitNanos}) {
+			counter.set(0L);
+		}
+		minRunBytes.set(Long.MAX_VALUE);
+		inputBytes = 0L;
+		fanIn = 0;
+		expectedMergePasses = 0L;
+		phase = null;
+		endNanos = 0L;
+		gcStartMillis = gcMillis();
+		gcStartCount = gcCount();
+		startNanos = System.nanoTime();
+		status = RUNNING;
+	}
+
+	/**
+	 * @param inputBytes - Total size of the input files, from which the estimate extrapolates the number of records
+	 */
+	void setInputBytes(long inputBytes) {
+		this.inputBytes = inputBytes;
+	}
+
+	/**
+	 * Stop timing the job.
+	 * @param completed - false if the job failed
+	 */
+	void finish(boolean completed) {
+		if (phase != null) {
+			exitPhase(phase);
+		}
+		endNanos = System.nanoTime();
+		gcMillis = gcMillis() - gcStartMillis;
+		gcCount = gcCount() - gcStartCount;
+		status = completed ? COMPLETED : FAILED;
+	}
+
+	/**
+	 * @return false if the phase is already running, as when run generation sorts a large file in blocks
+	 */
+	boolean enterPhase(SortPhase next) {
+		if (phase == next) {
+			return false;
+		}
+		phaseStartNanos = System.nanoTime();
+		phase = next;
+		return true;
+	}
+
+	void exitPhase(SortPhase current) {
+		phaseNanos[current.ordinal()].addAndGet(System.nanoTime() - phaseStartNanos);
+		phase = null;
+	}
+
+	void addInput(long bytes, long records) {
+		bytesRead.addAndGet(bytes);
+		recordsRead.addAndGet(records);
+	}
+
+	void addRun(long bytes) {
+		runCount.incrementAndGet();
+		runBytes.addAndGet(bytes);
+		minRunBytes.accumulateAndGet(bytes, Math::min);
+		maxRunBytes.accumulateAndGet(bytes, Math::max);
+	}
+
+	void addQueueWait(long nanos) {
+		queueWaitNanos.addAndGet(nanos);
+	}
+
+	/**
+	 * @param fanIn - Fan-in of the merge
+	 * @param passes - Number of merge passes planned before the final merge
+	 */
+	void startMerge(int fanIn, int passes) {
+		this.fanIn = fanIn;
+		expectedMergePasses = mergePasses.get() + passes;
+	}
+
+	void addMergePass() {
+		mergePasses.incrementAndGet();
+	}
+
+	void addMergedFile() {
+		mergedFiles.incrementAndGet();
+	}
+
+	void addRecordsMerged(long records) {
+		recordsMerged.addAndGet(records);
+	}
+
+	void addOutput(long bytes) {
+		outputBytes.addAndGet(bytes);
+	}
+
+	@Override
+	public String getStatus() {
+		return status;
+	}
+
+	@Override
+	public String getPhase() {
+		SortPhase current = phase;
+		return current == null ? "" : current.name();
+	}
+
+	private long elapsedNanos() {
+		if (startNanos == 0L) {
+			return 0L;
+		}
+		return (endNanos != 0L ? endNanos : System.nanoTime()) - startNanos;
+	}
+
+	@Override
+	public long getElapsedMillis() {
+		return elapsedNanos() / 1_000_000;
+	}
+
+	/**
+	 * @param of - Phase of the job
+	 * @return Time spent in the phase so far in milliseconds
+	 */
+	public long getPhaseMillis(SortPhase of) {
+		long nanos = phaseNanos[of.ordinal()].get();
+		if (phase == of) {
+			nanos += System.nanoTime() - phaseStartNanos;
+		}
+		return nanos / 1_000_000;
+	}
+
+	@Override
+	public long getRunGenerationMillis() {
+		return getPhaseMillis(SortPhase.RUN_GENERATION);
+	}
+
+	@Override
+	public long getMergePassesMillis() {
+		return getPhaseMillis(SortPhase.MERGE_PASSES);
+	}
+
+	@Override
+	public long getFinalMergeMillis() {
+		return getPhaseMillis(SortPhase.FINAL_MERGE);
+	}
+
+	@Override
+	public long getInputBytes() {
+		return inputBytes;
+	}
+
+	@Override
+	public long getBytesRead() {
+		return bytesRead.get();
+	}
+
+	@Override
+	public long getRecordsRead() {
+		return recordsRead.get();
+	}
+
+	/**
+	 * @return Input records sorted per second of the job
+	 */
+	@Override
+	public long getRecordsPerSecond() {
+		long nanos = elapsedNanos();
+		return nanos == 0L ? 0L : (long) (recordsRead.get() * 1e9 / nanos);
+	}
+
+	/**
+	 * @return Input bytes sorted per second of the job
+	 */
+	@Override
+	public long getBytesPerSecond() {
+		long nanos = elapsedNanos();
+		return nanos == 0L ? 0L : (long) (bytesRead.get() * 1e9 / nanos);
+	}
+
+	@Override
+	public long getRunCount() {
+		return runCount.get();
+	}
+
+	@Override
+	public long getRunBytes() {
+		return runBytes.get();
+	}
+
+	@Override
+	public long getMinRunBytes() {
+		return runCount.get() == 0L ? 0L : minRunBytes.get();
+	}
+
+	@Override
+	public long getMaxRunBytes() {
+		return maxRunBytes.get();
+	}
+
+	@Override
+	public int getFanIn() {
+		return fanIn;
+	}
+
+	@Override
+	public long getMergePasses() {
+		return mergePasses.get();
+	}
+
+	@Override
+	public long getMergedFiles() {
+		return mergedFiles.get();
+	}
+
+	@Override
+	public long getRecordsMerged() {
+		return recordsMerged.get();
+	}
+
+	@Override
+	public long getOutputBytes() {
+		return outputBytes.get();
+	}
+
+	/**
+	 * @return Time the reading thread waited for a free block or a free worker during run generation
+	 */
+	@Override
+	public long getQueueWaitMillis() {
+		return queueWaitNanos.get() / 1_000_000;
+	}
+
+	/**
+	 * @return Time the merge waited for buffers still being read ahead
+	 */
+	@Override
+	public long getReadAheadWaitMillis() {
+		return readAheadStatistics.getWaitNanos() / 1_000_000;
+	}
+
+	/**
+	 * @return Collection time of the JVM collectors during the job, including concurrent cycles
+	 */
+	@Override
+	public long getGcTimeMillis() {
+		return RUNNING.equals(status) ? gcMillis() - gcStartMillis : gcMillis;
+	}
+
+	@Override
+	public long getGcCount() {
+		return RUNNING.equals(status) ? gcCount() - gcStartCount : gcCount;
+	}
+
+	/**
+	 * Remaining time, extrapolated from the records processed so far. Every record is read once by run generation,
+	 * at most once by every merge pass (the last pass only merges the smallest files, so the estimate errs on the
+	 * long side) and once by the final merge; until run generation has read every input file the total number of
+	 * records is extrapolated from the bytes read.
+	 * @return Estimated remaining time in milliseconds, 0 once the job is over, -1 before any record is processed
+	 */
+	@Override
+	public long getEstimatedRemainingMillis() {
+		if (!RUNNING.equals(status)) {
+			return 0L;
+		}
+		long records = recordsRead.get();
+		long bytes = bytesRead.get();
+		long done = records + recordsMerged.get();
+		if (done == 0L) {
+			return -1L;
+		}
+		double totalRecords = inputBytes > bytes && bytes > 0L ? (double) records * inputBytes / bytes : records;
+		double total = totalRecords * (2 + expectedMergePasses);
+		double remaining = Math.max(0.0, total - done);
+		return (long) (elapsedNanos() / 1e6 * remaining / done);
+	}
+
+	/**
+	 * @return The metrics as a JSON object
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder("{\n");
+		field(json, "status", "\"" + getStatus() + "\"");
+		field(json, "elapsedMillis", getElapsedMillis());
+		json.append("  \"phaseMillis\": {");
+		for (SortPhase of : SortPhase.values()) {
+			json.append(of.ordinal() == 0 ? "" : ", ").append('"').append(of.name()).append("\": ").append(getPhaseMillis(of));
+		}
+		json.append("},\n");
+		field(json, "inputBytes", getInputBytes());
+		field(json, "bytesRead", getBytesRead());
+		field(json, "recordsRead", getRecordsRead());
+		field(json, "recordsPerSecond", getRecordsPerSecond());
+		field(json, "bytesPerSecond", getBytesPerSecond());
+		field(json, "runs", "{\"count\": " + getRunCount() + ", \"bytes\": " + getRunBytes() + ", \"minBytes\": "
+				+ getMinRunBytes() + ", \"maxBytes\": " + getMaxRunBytes() + "}");
+		field(json, "merge", "{\"fanIn\": " + getFanIn() + ", \"passes\": " + getMergePasses() + ", \"mergedFiles\": "
+				+ getMergedFiles() + ", \"recordsMerged\": " + getRecordsMerged() + "}");
+		field(json, "outputBytes", getOutputBytes());
+		field(json, "queueWaitMillis", getQueueWaitMillis());
+		field(json, "readAhead", "{\"buffersRead\": " + readAheadStatistics.getBuffersRead() + ", \"waits\": "
+				+ readAheadStatistics.getWaits() + ", \"waitMillis\": " + getReadAheadWaitMillis() + "}");
+		field(json, "gcTimeMillis", getGcTimeMillis());
+		field(json, "gcCount", getGcCount());
+		json.append("  \"estimatedRemainingMillis\": ").append(getEstimatedRemainingMillis()).append("\n}\n");
+		return json.toString();
+	}
+
+	private static void field(StringBuilder json, String name, Object value) {
+		json.append("  \"").append(name).append("\": ").append(value).append(",\n");
+	}
+
+	private static long gcMillis() {
+		long millis = 0L;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += Math.max(0L, collector.getCollectionTime());
+		}
+		return millis;
+	}
+
+	private static long gcCount() {
+		long count = 0L;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0L, collector.getCollectionCount());
+		}
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return status + " in " + getElapsedMillis() + " ms (run generation: " + getRunGenerationMillis()
+				+ " ms, merge passes: " + getMergePassesMillis() + " ms, final merge: " + getFinalMergeMillis()
+				+ " ms), records read: " + getRecordsRead() + ", bytes read: " + getBytesRead() + ", runs: "
+				+ getRunCount() + ", merge passes: " + getMergePasses() + ", output bytes: " + getOutputBytes();
+	}
+}
@@ -0,0 +1,58 @@
+package com.file.service;
+
+/**
+ * Metrics of the current or last sort job of a FileMergeSort, as registered in JMX with setJmxName.
+ * Times are in milliseconds, sizes in bytes.
+ */
+public interface SortMetricsMXBean {
+
+	String getStatus();
+
+	String getPhase();
+
+	long getElapsedMillis();
+
+	long getRunGenerationMillis();
+
+	long getMergePassesMillis();
+
+	long getFinalMergeMillis();
+
+	long getInputBytes();
+
+	long getBytesRead();
+
+	long getRecordsRead();
+
+	long getRecordsPerSecond();
+
+	long getBytesPerSecond();
+
+	long getRunCount();
+
+	long getRunBytes();
+
+	long getMinRunBytes();
+
+	long getMaxRunBytes();
+
+	int getFanIn();
+
+	long getMergePasses();
+
+	long getMergedFiles();
+
+	long getRecordsMerged();
+
+	long getOutputBytes();
+
+	long getQueueWaitMillis();
+
+	long getReadAheadWaitMillis();
+
+	long getGcTimeMillis();
+
+	long getGcCount();
+
+	long getEstimatedRemainingMillis();
+}
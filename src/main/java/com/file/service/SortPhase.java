@@ -0,0 +1,22 @@
+package com.file.service;
+
+/**
+ * Phases of a sort job, timed separately in the SortMetrics.
+ */
+public enum SortPhase {
+
+	/**
+	 * Reading the input files and writing them as sorted temporary files.
+	 */
+	RUN_GENERATION,
+
+	/**
+	 * Intermediate merge passes, while there are more sorted files than the fan-in.
+	 */
+	MERGE_PASSES,
+
+	/**
+	 * Merging the remaining sorted files into the Output file.
+	 */
+	FINAL_MERGE
+}
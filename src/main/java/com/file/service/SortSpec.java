@@ -0,0 +1,349 @@
+package com.file.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Order of the lines: one or more keys taken from the line, compared one after another, each ascending or
+ * descending. Lines with equal keys are ordered by their bytes, so equal lines always end up next to each other
+ * and duplicates can still be removed by comparing neighbours.
+ * Run generation and the merge share the spec. Every key is extracted once per line into a single long: the
+ * parsed value of LONG and DOUBLE keys, or the position of the field in the line for text and decimal keys,
+ * which are then compared in place without creating Strings. Decimal keys are compared digit by digit, so
+ * they keep any precision.
+ * With a spec, lines are kept as raw UTF-8 bytes whatever the byte mode.
+ */
+public final class SortSpec {
+
+	private static final long MALFORMED = Long.MIN_VALUE;
+
+	private final byte delimiter;
+	private final SortKey[] keys;
+
+	/**
+	 * @param delimiter - ASCII character separating the fields of a line, such as ',' or '\t'
+	 * @param keys - Keys in order of precedence
+	 */
+	public SortSpec(char delimiter, SortKey... keys) {
+		if (delimiter >= 0x80 || delimiter == '\n' || delimiter == '\r') {
+			throw new IllegalArgumentException("Delimiter must be an ASCII character other than a line terminator");
+		}
+		if (keys.length == 0) {
+			throw new IllegalArgumentException("Sort spec needs at least one key");
+		}
+		this.delimiter = (byte) delimiter;
+		this.keys = keys.clone();
+	}
+
+	/**
+	 * @param delimiter - ASCII character separating the fields of a line, such as ',' or '\t'
+	 * @param keys - Keys in order of precedence
+	 */
+	public SortSpec(char delimiter, List<SortKey> keys) {
+		this(delimiter, keys.toArray(new SortKey[0]));
+	}
+
+	/**
+	 * @return Number of longs extracted from every line
+	 */
+	int keyCount() {
+		return keys.length;
+	}
+
+	/**
+	 * Extract the keys of a line.
+	 * @param line - Array holding the line
+	 * @param offset - Start of the line in the array
+	 * @param length - Length of the line in bytes
+	 * @param target - Array receiving keyCount() longs
+	 * @param targetOffset - Start of the keys of the line in the target
+	 */
+	void extract(byte[] line, int offset, int length, long[] target, int targetOffset) {
+		for (int k = 0; k < keys.length; k++) {
+			SortKey key = keys[k];
+			int start = 0;
+			int end = length;
+			if (key.getField() != SortKey.WHOLE_LINE) {
+				start = fieldStart(line, offset, length, key.getField());
+				end = start;
+				while (end < length && line[offset + end] != delimiter) {
+					end++;
+				}
+			}
+			switch (key.getType()) {
+			case LONG:
+				target[targetOffset + k] = parseLong(line, offset + start, offset + end);
+				break;
+			case DECIMAL:
+				target[targetOffset + k] = locateDecimal(line, offset, start, end);
+				break;
+			case DOUBLE:
+				target[targetOffset + k] = parseDouble(line, offset + start, offset + end);
+				break;
+			default:
+				target[targetOffset + k] = (long) start << 32 | (end - start);
+			}
+		}
+	}
+
+	private int fieldStart(byte[] line, int offset, int length, int field) {
+		int position = 0;
+		for (int i = 0; i < field; i++) {
+			while (position < length && line[offset + position] != delimiter) {
+				position++;
+			}
+			if (position == length) {
+				return length;
+			}
+			position++;
+		}
+		return position;
+	}
+
+	/**
+	 * Normalized prefix of the first key: 8 bytes compared as an unsigned long in the order of the key, so two
+	 * lines with different prefixes compare like their prefixes and only equal prefixes need compare().
+	 * Numbers have their sign bit flipped, text keys give their first bytes (folded when ignoring case), decimal
+	 * keys have no prefix and always tie.
+	 * @param line - Array holding the line
+	 * @param offset - Start of the line in the array
+	 * @param lineKeys - Keys extracted from the line
+	 * @param keysOffset - Start of the keys of the line
+	 */
+	long prefix(byte[] line, int offset, long[] lineKeys, int keysOffset) {
+		SortKey key = keys[0];
+		long value = lineKeys[keysOffset];
+		long prefix;
+		switch (key.getType()) {
+		case LONG:
+		case DOUBLE:
+			prefix = value ^ Long.MIN_VALUE;
+			break;
+		case DECIMAL:
+			return 0L;
+		default:
+			int start = offset + (int) (value >>> 32);
+			int length = Math.min((int) value, Long.BYTES);
+			prefix = 0L;
+			for (int i = 0; i < length; i++) {
+				int b = line[start + i] & 0xff;
+				if (key.isIgnoreCase() && b >= 'A' && b <= 'Z') {
+					b += 'a' - 'A';
+				}
+				prefix |= (long) b << (56 - 8 * i);
+			}
+		}
+		return key.isDescending() ? ~prefix : prefix;
+	}
+
+	/**
+	 * Compare two lines by their extracted keys, then by their bytes.
+	 */
+	int compare(byte[] a, int aOffset, int aLength, long[] aKeys, int aKeysOffset,
+			byte[] b, int bOffset, int bLength, long[] bKeys, int bKeysOffset) {
+		for (int k = 0; k < keys.length; k++) {
+			SortKey key = keys[k];
+			long aKey = aKeys[aKeysOffset + k];
+			long bKey = bKeys[bKeysOffset + k];
+			int result;
+			switch (key.getType()) {
+			case LONG:
+			case DOUBLE:
+				result = Long.compare(aKey, bKey);
+				break;
+			case DECIMAL:
+				result = compareDecimal(a, aOffset, aKey, b, bOffset, bKey);
+				break;
+			default:
+				result = compareText(a, aOffset + (int) (aKey >>> 32), (int) aKey, b, bOffset + (int) (bKey >>> 32), (int) bKey,
+						key.isIgnoreCase());
+			}
+			if (result != 0) {
+				return key.isDescending() ? -result : result;
+			}
+		}
+		return compareText(a, aOffset, aLength, b, bOffset, bLength, false);
+	}
+
+	/**
+	 * Compare two whole lines, extracting their keys first. Meant for the few comparisons made outside of the
+	 * sort and the merge.
+	 */
+	int compareLines(byte[] a, byte[] b) {
+		long[] aKeys = new long[keys.length];
+		long[] bKeys = new long[keys.length];
+		extract(a, 0, a.length, aKeys, 0);
+		extract(b, 0, b.length, bKeys, 0);
+		return compare(a, 0, a.length, aKeys, 0, b, 0, b.length, bKeys, 0);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder spec = new StringBuilder("delimiter '").append((char) delimiter).append("'");
+		for (SortKey key : keys) {
+			spec.append(", ").append(key);
+		}
+		return spec.toString();
+	}
+
+	private static int compareText(byte[] a, int aStart, int aLength, byte[] b, int bStart, int bLength, boolean ignoreCase) {
+		int length = Math.min(aLength, bLength);
+		for (int i = 0; i < length; i++) {
+			int x = a[aStart + i] & 0xff;
+			int y = b[bStart + i] & 0xff;
+			if (ignoreCase) {
+				x = x >= 'A' && x <= 'Z' ? x + ('a' - 'A') : x;
+				y = y >= 'A' && y <= 'Z' ? y + ('a' - 'A') : y;
+			}
+			if (x != y) {
+				return x - y;
+			}
+		}
+		return aLength - bLength;
+	}
+
+	private static long parseLong(byte[] line, int start, int end) {
+		while (start < end && line[start] == ' ') {
+			start++;
+		}
+		while (end > start && line[end - 1] == ' ') {
+			end--;
+		}
+		boolean negative = start < end && line[start] == '-';
+		if (start < end && (line[start] == '-' || line[start] == '+')) {
+			start++;
+		}
+		if (start == end) {
+			return MALFORMED;
+		}
+		long value = 0L;
+		for (int i = start; i < end; i++) {
+			int digit = line[i] - '0';
+			if (digit < 0 || digit > 9) {
+				return MALFORMED;
+			}
+			if (value < (Long.MIN_VALUE + digit) / 10) {
+				return negative ? Long.MIN_VALUE + 1 : Long.MAX_VALUE;
+			}
+			value = value * 10 - digit;
+		}
+		if (negative) {
+			return value == Long.MIN_VALUE ? Long.MIN_VALUE + 1 : value;
+		}
+		return value == Long.MIN_VALUE ? Long.MAX_VALUE : -value;
+	}
+
+	/**
+	 * Parse a floating point key into a long with the same order as the double.
+	 */
+	private static long parseDouble(byte[] line, int start, int end) {
+		double value;
+		try {
+			value = Double.parseDouble(new String(line, start, end - start, StandardCharsets.US_ASCII).trim());
+		} catch (NumberFormatException e) {
+			return MALFORMED;
+		}
+		long bits = Double.doubleToLongBits(value == 0.0 ? 0.0 : value);
+		return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+	}
+
+	/**
+	 * Trimmed position of a decimal key in the line, or MALFORMED if it is not a decimal number.
+	 */
+	private static long locateDecimal(byte[] line, int offset, int start, int end) {
+		while (start < end && line[offset + start] == ' ') {
+			start++;
+		}
+		while (end > start && line[offset + end - 1] == ' ') {
+			end--;
+		}
+		int digits = start < end && (line[offset + start] == '-' || line[offset + start] == '+') ? start + 1 : start;
+		int point = digits;
+		while (point < end && isDigit(line[offset + point])) {
+			point++;
+		}
+		int fractionEnd = point;
+		if (point < end && line[offset + point] == '.') {
+			fractionEnd = point + 1;
+			while (fractionEnd < end && isDigit(line[offset + fractionEnd])) {
+				fractionEnd++;
+			}
+		}
+		boolean noDigits = point == digits && fractionEnd <= point + 1;
+		if (fractionEnd != end || noDigits) {
+			return MALFORMED;
+		}
+		return (long) start << 32 | (end - start);
+	}
+
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+
+	/**
+	 * Compare two decimal numbers digit by digit: sign, number of significant integer digits, integer digits,
+	 * then fraction digits. Keys that are not decimal numbers sort first.
+	 */
+	private static int compareDecimal(byte[] a, int aOffset, long aKey, byte[] b, int bOffset, long bKey) {
+		if (aKey == MALFORMED || bKey == MALFORMED) {
+			return aKey == bKey ? 0 : (aKey == MALFORMED ? -1 : 1);
+		}
+		int aStart = aOffset + (int) (aKey >>> 32);
+		int aEnd = aStart + (int) aKey;
+		int bStart = bOffset + (int) (bKey >>> 32);
+		int bEnd = bStart + (int) bKey;
+		int aSign = decimalSign(a, aStart, aEnd);
+		int bSign = decimalSign(b, bStart, bEnd);
+		if (aSign != bSign) {
+			return Integer.compare(aSign, bSign);
+		}
+		int aDigits = a[aStart] == '-' || a[aStart] == '+' ? aStart + 1 : aStart;
+		int bDigits = b[bStart] == '-' || b[bStart] == '+' ? bStart + 1 : bStart;
+		int aPoint = point(a, aDigits, aEnd);
+		int bPoint = point(b, bDigits, bEnd);
+		int aInteger = skipZeros(a, aDigits, aPoint);
+		int bInteger = skipZeros(b, bDigits, bPoint);
+		int result = Integer.compare(aPoint - aInteger, bPoint - bInteger);
+		if (result == 0) {
+			result = compareText(a, aInteger, aPoint - aInteger, b, bInteger, bPoint - bInteger, false);
+		}
+		if (result == 0) {
+			int aFraction = Math.min(aPoint + 1, aEnd);
+			int bFraction = Math.min(bPoint + 1, bEnd);
+			int aFractionEnd = trimZeros(a, aFraction, aEnd);
+			int bFractionEnd = trimZeros(b, bFraction, bEnd);
+			result = compareText(a, aFraction, aFractionEnd - aFraction, b, bFraction, bFractionEnd - bFraction, false);
+		}
+		return aSign < 0 ? -result : result;
+	}
+
+	private static int decimalSign(byte[] text, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (text[i] > '0' && text[i] <= '9') {
+				return text[start] == '-' ? -1 : 1;
+			}
+		}
+		return 0;
+	}
+
+	private static int point(byte[] text, int start, int end) {
+		while (start < end && text[start] != '.') {
+			start++;
+		}
+		return start;
+	}
+
+	private static int skipZeros(byte[] text, int start, int end) {
+		while (start < end && text[start] == '0') {
+			start++;
+		}
+		return start;
+	}
+
+	private static int trimZeros(byte[] text, int start, int end) {
+		while (end > start && text[end - 1] == '0') {
+			end--;
+		}
+		return end;
+	}
+}
@@ -1,33 +1,158 @@
 package com.file.service;
 
-import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 
 /**
  * This class creates a steam for each Temporary files and automatically holds the
  * next line of the file
+ * The line is kept as raw UTF-8 bytes and only decoded into a String when getLine() is called,
+ * so a merge comparing bytes never creates Strings.
+ * With a SortSpec, the keys of each line are extracted once when the stream moves to it.
+ * The prefix of the current line (see PrefixSorter) is cached on first use, so the merge settles most
+ * comparisons with a single long compare.
  */
-public class SortedFileStreamer {
-	
+public final class SortedFileStreamer implements Closeable {
+
+	private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	private final LineReader reader;
+	private final SortSpec sortSpec;
+	private final long[] keys;
+	private boolean hasLine;
 	private String line;
-	private BufferedReader br;
+	private long prefix;
+	private boolean prefixCached;
 
 	public SortedFileStreamer(Path filePath) throws IOException {
-		this.br = Files.newBufferedReader(filePath);
-		line = br.readLine();
+		this(filePath, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param filePath - Sorted file to read
+	 * @param bufferSize - Size of the read buffer in bytes
+	 * @throws IOException
+	 */
+	public SortedFileStreamer(Path filePath, int bufferSize) throws IOException {
+		this(new StreamLineReader(filePath, bufferSize));
+	}
+
+	/**
+	 * @param reader - Reader positioned before the first line of a sorted file
+	 * @throws IOException
+	 */
+	SortedFileStreamer(LineReader reader) throws IOException {
+		this(reader, null);
+	}
+
+	/**
+	 * @param reader - Reader positioned before the first line of a file sorted by the spec
+	 * @param sortSpec - Spec the keys of each line are extracted for, or null
+	 * @throws IOException
+	 */
+	SortedFileStreamer(LineReader reader, SortSpec sortSpec) throws IOException {
+		this.reader = reader;
+		this.sortSpec = sortSpec;
+		this.keys = new long[sortSpec == null ? 0 : sortSpec.keyCount()];
+		advance();
 	}
 
 	public String getLine() {
+		if (line == null && hasLine) {
+			line = new String(reader.array(), reader.offset(), reader.length(), StandardCharsets.UTF_8);
+		}
 		return line;
 	}
-	
+
 	public String nextLine() throws IOException {
-		String currentWord = line;
-		if((line = br.readLine()) == null) {
-			br.close();
-		}
+		String currentWord = getLine();
+		advance();
 		return currentWord;
 	}
+
+	/**
+	 * @return false once End of File is reached
+	 */
+	public boolean hasLine() {
+		return hasLine;
+	}
+
+	/**
+	 * Array holding the current line, valid until the stream moves to the next line.
+	 */
+	byte[] array() {
+		return reader.array();
+	}
+
+	/**
+	 * Start of the current line in array().
+	 */
+	int offset() {
+		return reader.offset();
+	}
+
+	/**
+	 * Length of the current line in bytes.
+	 */
+	int length() {
+		return reader.length();
+	}
+
+	/**
+	 * Number of occurrences the current line stands for in a temporary file of counted lines, otherwise 1.
+	 */
+	long count() {
+		return reader.count();
+	}
+
+	/**
+	 * Keys of the current line extracted for the SortSpec.
+	 */
+	long[] keys() {
+		return keys;
+	}
+
+	/**
+	 * First 8 bytes of the current line, or the normalized first key with a SortSpec, as an unsigned long.
+	 */
+	long prefix() {
+		if (!prefixCached) {
+			prefix = sortSpec != null ? sortSpec.prefix(reader.array(), reader.offset(), keys, 0)
+					: PrefixSorter.bytePrefix(reader.array(), reader.offset(), reader.length());
+			prefixCached = true;
+		}
+		return prefix;
+	}
+
+	/**
+	 * First 4 characters of the current line decoded as a String, as an unsigned long.
+	 */
+	long charPrefix() {
+		if (!prefixCached) {
+			prefix = PrefixSorter.charPrefix(getLine());
+			prefixCached = true;
+		}
+		return prefix;
+	}
+
+	/**
+	 * Move to the next line without decoding the current one.
+	 * @throws IOException
+	 */
+	void advance() throws IOException {
+		line = null;
+		prefixCached = false;
+		if (!(hasLine = reader.next())) {
+			reader.close();
+		} else if (sortSpec != null) {
+			sortSpec.extract(reader.array(), reader.offset(), reader.length(), keys, 0);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
 }
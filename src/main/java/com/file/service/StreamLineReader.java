@@ -0,0 +1,123 @@
+package com.file.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * LineReader over an InputStream.
+ * Bytes are read into one buffer and lines are returned in place; a line crossing the end of the buffer is moved
+ * to its start before the buffer is refilled, and the buffer grows only for lines longer than itself.
+ */
+class StreamLineReader implements LineReader {
+
+	private final InputStream in;
+	private byte[] buffer;
+	private int position = 0;
+	private int limit = 0;
+	private boolean endOfStream = false;
+	private int lineOffset = 0;
+	private int lineLength = 0;
+	private long bytesRead = 0L;
+
+	/**
+	 * @param in - Stream to read
+	 * @param bufferSize - Size of the read buffer in bytes
+	 */
+	StreamLineReader(InputStream in, int bufferSize) {
+		this.in = in;
+		this.buffer = new byte[Math.max(bufferSize, 16)];
+	}
+
+	/**
+	 * @param filePath - File to read
+	 * @param bufferSize - Size of the read buffer in bytes
+	 * @throws IOException
+	 */
+	StreamLineReader(Path filePath, int bufferSize) throws IOException {
+		this(Files.newInputStream(filePath), bufferSize);
+	}
+
+	@Override
+	public boolean next() throws IOException {
+		int scan = position;
+		while (true) {
+			for (; scan < limit; scan++) {
+				if (buffer[scan] == '\n') {
+					setLine(position, scan);
+					position = scan + 1;
+					return true;
+				}
+			}
+			if (endOfStream) {
+				if (position < limit) {
+					setLine(position, limit);
+					position = limit;
+					return true;
+				}
+				return false;
+			}
+			scan = scan - position;
+			fill();
+		}
+	}
+
+	private void setLine(int start, int end) {
+		if (end > start && buffer[end - 1] == '\r') {
+			end--;
+		}
+		lineOffset = start;
+		lineLength = end - start;
+	}
+
+	/**
+	 * Move the unread bytes to the start of the buffer, growing it if it is full, and read more bytes.
+	 */
+	private void fill() throws IOException {
+		int remaining = limit - position;
+		if (remaining == buffer.length) {
+			byte[] grown = new byte[buffer.length * 2];
+			System.arraycopy(buffer, position, grown, 0, remaining);
+			buffer = grown;
+		} else if (position > 0) {
+			System.arraycopy(buffer, position, buffer, 0, remaining);
+		}
+		position = 0;
+		limit = remaining;
+		int read = in.read(buffer, limit, buffer.length - limit);
+		if (read < 0) {
+			endOfStream = true;
+		} else {
+			limit += read;
+			bytesRead += read;
+		}
+	}
+
+	@Override
+	public byte[] array() {
+		return buffer;
+	}
+
+	@Override
+	public int offset() {
+		return lineOffset;
+	}
+
+	@Override
+	public int length() {
+		return lineLength;
+	}
+
+	/**
+	 * @return Number of bytes read from the stream so far
+	 */
+	long bytesRead() {
+		return bytesRead;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
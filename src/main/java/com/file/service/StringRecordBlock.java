@@ -0,0 +1,117 @@
+package com.file.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Block of lines decoded into Strings and sorted in the order of String.compareTo.
+ * The sort caches the first 4 characters of every line as a long prefix and radix sorts on it, so String.compareTo
+ * only runs for lines with equal prefixes, see PrefixSorter.
+ * The heap of every line is estimated from its layout with compressed references: the String object and the
+ * header of its value array, one byte per character for Latin-1 text or two otherwise, the list reference
+ * and the arrays used by the sort (a reference, the prefix and two indexes).
+ */
+class StringRecordBlock implements RecordBlock {
+
+	private static final int STRING_HEADER_BYTES = 24 + 16;
+	private static final int REFERENCE_BYTES = 4 + 4 + 8 + 4 + 4;
+
+	private final long memoryLimit;
+	private final List<String> lines = new ArrayList<>();
+	private long footprint = 0L;
+	private long[] prefixes = new long[0];
+	private int[] order = new int[0];
+	private int[] buffer = new int[0];
+
+	/**
+	 * @param memoryLimit - Maximum estimated heap of the block in bytes
+	 */
+	StringRecordBlock(long memoryLimit) {
+		this.memoryLimit = memoryLimit;
+	}
+
+	@Override
+	public boolean add(byte[] bytes, int offset, int length) {
+		String line = new String(bytes, offset, length, StandardCharsets.UTF_8);
+		long lineFootprint = estimate(line, length);
+		if (footprint + lineFootprint > memoryLimit && !lines.isEmpty()) {
+			return false;
+		}
+		lines.add(line);
+		footprint += lineFootprint;
+		return true;
+	}
+
+	/**
+	 * Estimated heap of a line: a String holding only characters below 0x80 has as many characters as UTF-8 bytes
+	 * and is stored one byte per character.
+	 */
+	static long estimate(String line, int encodedLength) {
+		long valueBytes = line.length() == encodedLength ? encodedLength : 2L * line.length();
+		return STRING_HEADER_BYTES + ((valueBytes + 7) & ~7L) + REFERENCE_BYTES;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return lines.isEmpty();
+	}
+
+	@Override
+	public int size() {
+		return lines.size();
+	}
+
+	@Override
+	public long footprint() {
+		return footprint;
+	}
+
+	@Override
+	public void sort() {
+		int size = lines.size();
+		if (order.length < size) {
+			prefixes = new long[size];
+			order = new int[size];
+			buffer = new int[size];
+		}
+		String[] unsorted = lines.toArray(new String[0]);
+		for (int i = 0; i < size; i++) {
+			prefixes[i] = PrefixSorter.charPrefix(unsorted[i]);
+			order[i] = i;
+		}
+		PrefixSorter.sort(prefixes, order, buffer, size, (a, b) -> unsorted[a].compareTo(unsorted[b]));
+		for (int i = 0; i < size; i++) {
+			lines.set(i, unsorted[order[i]]);
+		}
+	}
+
+	@Override
+	public void writeTo(OutputSink output, Duplicates duplicates) throws IOException {
+		int size = lines.size();
+		for (int i = 0; i < size; i++) {
+			String line = lines.get(i);
+			if (duplicates == Duplicates.KEEP) {
+				output.write(line);
+				continue;
+			}
+			int end = i + 1;
+			while (end < size && line.equals(lines.get(end))) {
+				end++;
+			}
+			if (duplicates == Duplicates.COUNT) {
+				output.write(line, end - i);
+			} else {
+				output.write(line);
+			}
+			i = end - 1;
+		}
+	}
+
+	@Override
+	public void clear() {
+		lines.clear();
+		footprint = 0L;
+	}
+}
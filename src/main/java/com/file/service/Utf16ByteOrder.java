@@ -0,0 +1,97 @@
+package com.file.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compares UTF-8 encoded lines in the order of String.compareTo without decoding them.
+ * Both orders agree except between supplementary characters, stored as surrogates 0xD800 to 0xDFFF in UTF-16,
+ * and characters 0xE000 to 0xFFFF, so only the first differing character is decoded.
+ * Lines whose differing character is not well formed UTF-8, or where one line ends inside a character of the other,
+ * are decoded as Strings, since the decoder replaces malformed bytes.
+ */
+final class Utf16ByteOrder {
+
+	private Utf16ByteOrder() {
+	}
+
+	/**
+	 * @return The comparison of new String(a, UTF_8) and new String(b, UTF_8)
+	 */
+	static int compare(byte[] a, byte[] b) {
+		int index = Arrays.mismatch(a, b);
+		if (index < 0) {
+			return 0;
+		}
+		if (index == a.length || index == b.length) {
+			byte[] longer = index == a.length ? b : a;
+			if ((longer[index] & 0xc0) != 0x80) {
+				return a.length - b.length;
+			}
+			return decodedCompare(a, b);
+		}
+		int x = a[index] & 0xff;
+		int y = b[index] & 0xff;
+		if (x < 0x80 && y < 0x80) {
+			return x - y;
+		}
+		int start = index;
+		while (start > 0 && index - start < 3 && (a[start] & 0xc0) == 0x80) {
+			start--;
+		}
+		int codePointA = codePointAt(a, start);
+		int codePointB = codePointAt(b, start);
+		if (codePointA < 0 || codePointB < 0) {
+			return decodedCompare(a, b);
+		}
+		int unitA = Character.isSupplementaryCodePoint(codePointA) ? Character.highSurrogate(codePointA) : codePointA;
+		int unitB = Character.isSupplementaryCodePoint(codePointB) ? Character.highSurrogate(codePointB) : codePointB;
+		return unitA != unitB ? unitA - unitB : Integer.compare(codePointA, codePointB);
+	}
+
+	private static int decodedCompare(byte[] a, byte[] b) {
+		return new String(a, StandardCharsets.UTF_8).compareTo(new String(b, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Decode the character starting at index.
+	 * @return Code point, or -1 if the bytes are not a well formed UTF-8 sequence
+	 */
+	private static int codePointAt(byte[] bytes, int index) {
+		int lead = bytes[index] & 0xff;
+		int length;
+		int codePoint;
+		int min;
+		int max = 0xbf;
+		if (lead < 0x80) {
+			return lead;
+		} else if (lead >= 0xc2 && lead <= 0xdf) {
+			length = 1;
+			codePoint = lead & 0x1f;
+			min = 0x80;
+		} else if (lead >= 0xe0 && lead <= 0xef) {
+			length = 2;
+			codePoint = lead & 0x0f;
+			min = lead == 0xe0 ? 0xa0 : 0x80;
+			max = lead == 0xed ? 0x9f : 0xbf;
+		} else if (lead >= 0xf0 && lead <= 0xf4) {
+			length = 3;
+			codePoint = lead & 0x07;
+			min = lead == 0xf0 ? 0x90 : 0x80;
+			max = lead == 0xf4 ? 0x8f : 0xbf;
+		} else {
+			return -1;
+		}
+		if (index + length >= bytes.length) {
+			return -1;
+		}
+		for (int i = 1; i <= length; i++) {
+			int next = bytes[index + i] & 0xff;
+			if (next < (i == 1 ? min : 0x80) || next > (i == 1 ? max : 0xbf)) {
+				return -1;
+			}
+			codePoint = codePoint << 6 | next & 0x3f;
+		}
+		return codePoint;
+	}
+}
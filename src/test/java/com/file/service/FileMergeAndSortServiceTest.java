@@ -4,14 +4,30 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.management.ObjectName;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -50,12 +66,58 @@ class FileMergeAndSortServiceTest {
 		Path subdirPath = tempDir.resolve("MergeService");
 		Files.createDirectory(subdirPath);
 		subDirectory = subdirPath.toString();
-		subDirectory_Split = subDirectory + "\\split";
+		subDirectory_Split = subdirPath.resolve("split").toString();
 		tempMergedFileSize_Expected = Files.size(Paths.get(tempMergeFile));
 		inputFilePaths = Files.walk(Paths.get(inputDirectory)).filter(Files::isRegularFile).collect(Collectors.toList());
 		empty_InputFilePaths = Files.walk(Paths.get(inputDirectory_WithEmptyFiles)).filter(Files::isRegularFile).collect(Collectors.toList());
 	}
 
+	/**
+	 * Write files of random lines into a new directory of the temporary directory.
+	 * @param name - Name of the directory
+	 * @param line - Draws a line
+	 * @return Every line written, in the order written
+	 */
+	private List<String> writeRandomInputs(String name, long seed, int files, int linesPerFile, Function<Random, String> line)
+			throws IOException {
+		Path directory = Files.createDirectory(Paths.get(subDirectory, name));
+		Random random = new Random(seed);
+		List<String> lines = new ArrayList<>();
+		for (int file = 0; file < files; file++) {
+			List<String> fileLines = new ArrayList<>();
+			for (int i = 0; i < linesPerFile; i++) {
+				fileLines.add(line.apply(random));
+			}
+			Files.write(directory.resolve(file + ".txt"), fileLines);
+			lines.addAll(fileLines);
+		}
+		return lines;
+	}
+
+	/**
+	 * @return Files written by writeRandomInputs into the directory name
+	 */
+	private List<Path> inputFiles(String name) throws IOException {
+		try (Stream<Path> files = Files.list(Paths.get(subDirectory, name))) {
+			return files.sorted().collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * Generate the runs of the input files in a new directory of the temporary directory and merge them into output.dat.
+	 */
+	private void mergeRuns(FileMergeSort merge, List<Path> inputs, String tempName, boolean removeDuplicates) throws Exception {
+		String splitDirectory = Files.createDirectory(Paths.get(subDirectory, tempName)).resolve("split").toString();
+		merge.generateRuns(inputs, splitDirectory);
+		merge.mergeSortedFiles(splitDirectory, outputDirectory, removeDuplicates);
+	}
+
+	private void assertMergedOutput(List<String> expected) throws IOException {
+		try (Stream<String> lines = Files.lines(Paths.get(outputDirectory, "output.dat"))) {
+			assertEquals(expected, lines.collect(Collectors.toList()));
+		}
+	}
+
 	@Test
 	@DisplayName("Check if the Temporary merged file contains all data")
 	void test_TemporaryMergedFileSize() throws Exception {
@@ -149,6 +211,668 @@ class FileMergeAndSortServiceTest {
 		assertTrue(actualOutput.equals(expected_NoDuplicates_output));
 	}
 
+	@Test
+	@DisplayName("Check if output is sorted when blocks are sorted on multiple threads")
+	void test_CheckIfParallelSplitOutputIsSorted() throws Exception {
+		FileMergeSort merge = new FileMergeSort();
+		merge.setParallelism(4);
+		merge.setMaxBlocksInFlight(2);
+		merge.setMemoryBudget(600);
+		merge.splitAndSort(tempMergeFile, subDirectory_Split);
+		assertTrue(Files.list(Paths.get(subDirectory_Split)).count() > 3);
+		merge.mergeSortedFiles(subDirectory_Split, outputDirectory,removeDuplicates);
+		List<String> actualOutput = Files.lines(Paths.get(outputDirectory + "/output.dat"))
+				.collect(Collectors.toList());
+		assertEquals(expected_output, actualOutput);
+	}
+
+	@Test
+	@DisplayName("Check if sorted temp files generated straight from the input files contain all data")
+	void test_CheckIfGeneratedRunsAreSorted() throws Exception {
+		FileMergeSort merge = new FileMergeSort();
+		merge.generateRuns(inputFilePaths, subDirectory_Split);
+		merge.mergeSortedFiles(subDirectory_Split, outputDirectory,removeDuplicates);
+		List<String> actualOutput = Files.lines(Paths.get(outputDirectory + "/output.dat"))
+				.collect(Collectors.toList());
+		assertEquals(expected_output, actualOutput);
+	}
+
+	@Test
+	@DisplayName("Check for Exception when generating sorted temp files from empty input files")
+	void test_GenerateRunsFromEmptyFiles() {
+		assertThrows(Exception.class, ()->{
+			FileMergeSort merge = new FileMergeSort();
+			merge.generateRuns(empty_InputFilePaths, subDirectory_Split);
+		});
+	}
+
+	@Test
+	@DisplayName("Check if output is sorted when the input files are not sorted")
+	void test_CheckIfUnsortedInputFilesAreSorted() throws Exception {
+		FileMergeSort merge = new FileMergeSort();
+		merge.mergeAndSortFiles(inputDirectory, outputDirectory, subDirectory, removeDuplicates);
+		List<String> actualOutput = Files.lines(Paths.get(outputDirectory + "/output.dat"))
+				.collect(Collectors.toList());
+		assertEquals(expected_output, actualOutput);
+	}
+
+	@Test
+	@DisplayName("Check if each input file is sorted into its own temp file")
+	void test_CheckIfEachInputFileIsSorted() throws Exception {
+		FileMergeSort merge = new FileMergeSort();
+		merge.sortInputFiles(inputFilePaths, subDirectory_Split);
+		List<Path> tempFilePaths = Files.walk(Paths.get(subDirectory_Split)).filter(Files::isRegularFile).collect(Collectors.toList());
+		assertEquals(inputFilePaths.size(), tempFilePaths.size());
+		for (Path tempFilePath : tempFilePaths) {
+			List<String> lines = Files.readAllLines(tempFilePath);
+			assertEquals(lines.stream().sorted().collect(Collectors.toList()), lines);
+		}
+	}
+
+	@Test
+	@DisplayName("Check if output is sorted when the sorted files are merged in several passes")
+	void test_CheckIfMultiPassMergeOutputIsSorted() throws Exception {
+		FileMergeSort merge = new FileMergeSort();
+		merge.setMaxFanIn(2);
+		merge.sortInputFiles(inputFilePaths, subDirectory_Split);
+		merge.mergeSortedFiles(subDirectory_Split, outputDirectory,removeDuplicates);
+		List<String> actualOutput = Files.lines(Paths.get(outputDirectory + "/output.dat"))
+				.collect(Collectors.toList());
+		assertEquals(expected_output, actualOutput);
+		assertEquals(1, merge.getMetrics().getMergePasses());
+		assertEquals(2, merge.getMetrics().getMergedFiles());
+		assertEquals(2, Files.list(Paths.get(subDirectory_Split)).count());
+	}
+
+	@Test
+	@DisplayName("Check if the last merge pass only merges the smallest files needed to leave fan-in files")
+	void test_CheckIfLastMergePassMergesSmallestFiles() throws Exception {
+		FileMergeSort merge = new FileMergeSort();
+		merge.setMaxFanIn(3);
+		merge.sortInputFiles(inputFilePaths, subDirectory_Split);
+		List<Path> runs = Files.list(Paths.get(subDirectory_Split)).sorted().collect(Collectors.toList());
+		List<String> smallestLines = new ArrayList<>();
+		for (Path run : runs.stream().sorted(Comparator.comparing(run -> run.toFile().length())).limit(2).collect(Collectors.toList())) {
+			smallestLines.addAll(Files.readAllLines(run));
+		}
+		smallestLines.sort(null);
+		merge.mergeSortedFiles(runs, subDirectory_Split, outputDirectory, removeDuplicates);
+		assertEquals(expected_output, Files.readAllLines(Paths.get(outputDirectory, "output.dat")));
+		List<Path> mergedRuns = Files.list(Paths.get(subDirectory_Split)).filter(run -> !runs.contains(run)).collect(Collectors.toList());
+		assertEquals(1, mergedRuns.size());
+		assertTrue(runs.stream().allMatch(Files::exists));
+		assertEquals(smallestLines, Files.readAllLines(mergedRuns.get(0)));
+		assertEquals(1, merge.getMetrics().getMergePasses());
+		assertEquals(1, FileMergeSort.mergePassCount(100, 10));
+		assertEquals(2, FileMergeSort.mergePassCount(101, 10));
+		assertEquals(2, FileMergeSort.mergePassCount(1000, 10));
+		assertEquals(3, FileMergeSort.mergePassCount(1001, 10));
+		assertEquals(10, FileMergeSort.lastPassFiles(19, 10));
+		assertEquals(2, FileMergeSort.lastPassFiles(11, 10));
+	}
+
+	@Test
+	@DisplayName("Check if merging an uneven number of sorted files, some of them empty, gives sorted output")
+	void test_CheckIfMergeOfUnevenSortedFilesIsSorted() throws Exception {
+		Random random = new Random(7);
+		List<String> allWords = new ArrayList<>();
+		Files.createDirectories(Paths.get(subDirectory_Split));
+		for (int i = 0; i < 7; i++) {
+			List<String> words = new ArrayList<>();
+			for (int j = 0; j < (i % 3 == 0 ? 0 : 50 * i); j++) {
+				words.add(Integer.toString(random.nextInt(1000), 36));
+			}
+			words.sort(null);
+			allWords.addAll(words);
+			Files.write(Paths.get(subDirectory_Split, i + ".dat"), words);
+		}
+		allWords.sort(null);
+		FileMergeSort merge = new FileMergeSort();
+		merge.mergeSortedFiles(subDirectory_Split, outputDirectory,removeDuplicates);
+		List<String> actualOutput = Files.lines(Paths.get(outputDirectory + "/output.dat"))
+				.collect(Collectors.toList());
+		assertEquals(allWords, actualOutput);
+	}
+
+	@Test
+	@DisplayName("Check if non ASCII lines and lines longer than the write buffer are written unchanged")
+	void test_CheckIfOutputKeepsLongAndNonAsciiLines() throws Exception {
+		List<String> words = new ArrayList<>(List.of("zebra", "\u00e9clair", "caf\u00e9", "a".repeat(5000), "\u65e5\u672c"));
+		Files.createDirectories(Paths.get(subDirectory_Split));
+		Files.write(Paths.get(subDirectory_Split, "1.dat"), words);
+		words.sort(null);
+		FileMergeSort merge = new FileMergeSort();
+		merge.setWriteBufferSize(1024);
+		merge.sortInputFiles(List.of(Paths.get(subDirectory_Split, "1.dat")), subDirectory_Split + "/sorted");
+		merge.mergeSortedFiles(subDirectory_Split + "/sorted", outputDirectory,removeDuplicates);
+		assertEquals(words, Files.readAllLines(Paths.get(outputDirectory + "/output.dat")));
+	}
+
+	@Test
+	@DisplayName("Check if output is sorted and duplicates removed when sorting raw bytes")
+	void test_CheckIfByteModeOutputIsSorted() throws Exception {
+		FileMergeSort merge = new FileMergeSort();
+		merge.setByteMode(true);
+		merge.generateRuns(inputFilePaths, subDirectory_Split);
+		merge.mergeSortedFiles(subDirectory_Split, outputDirectory,true);
+		List<String> actualOutput = Files.lines(Paths.get(outputDirectory + "/output.dat"))
+				.collect(Collectors.toList());
+		assertEquals(expected_NoDuplicates_output, actualOutput);
+	}
+
+	@Test
+	@DisplayName("Check if sorting raw bytes gives the same order as sorting Strings")
+	void test_CheckIfByteModeOrderMatchesStringOrder() throws Exception {
+		Random random = new Random(11);
+		String alphabet = "abcXYZ019 \u00e9\u00fc\u0416\u65e5\uff21";
+		List<String> words = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			StringBuilder word = new StringBuilder();
+			for (int j = random.nextInt(6); j >= 0; j--) {
+				word.append(alphabet.charAt(random.nextInt(alphabet.length())));
+			}
+			words.add(word.toString());
+		}
+		Files.createDirectories(Paths.get(subDirectory));
+		Files.write(Paths.get(subDirectory, "words.dat"), words);
+		words.sort(null);
+		FileMergeSort merge = new FileMergeSort();
+		merge.setByteMode(true);
+		merge.sortInputFiles(List.of(Paths.get(subDirectory, "words.dat")), subDirectory_Split);
+		merge.mergeSortedFiles(subDirectory_Split, outputDirectory,removeDuplicates);
+		assertEquals(words, Files.readAllLines(Paths.get(outputDirectory + "/output.dat")));
+	}
+
+	@Test
+	@DisplayName("Check if output is sorted when reading through small memory mapped windows")
+	void test_CheckIfMemoryMappedOutputIsSorted() throws Exception {
+		FileMergeSort merge = new FileMergeSort();
+		merge.setMemoryMappedReads(true);
+		merge.setMappedWindowSize(7);
+		merge.mergeAndSortFiles(inputDirectory, outputDirectory, subDirectory, removeDuplicates);
+		List<String> actualOutput = Files.lines(Paths.get(outputDirectory + "/output.dat"))
+				.collect(Collectors.toList());
+		assertEquals(expected_output, actualOutput);
+	}
+
+	@Test
+	@DisplayName("Check if a small memory budget splits the input into several sorted temp files")
+	void test_CheckIfMemoryBudgetLimitsTempFileSize() throws Exception {
+		for (boolean byteMode : new boolean[] {false, true}) {
+			String splitDirectory = subDirectory + "/budget" + byteMode;
+			FileMergeSort merge = new FileMergeSort();
+			merge.setByteMode(byteMode);
+			merge.setParallelism(2);
+			merge.setMemoryBudget(600);
+			merge.generateRuns(inputFilePaths, splitDirectory);
+			List<Path> tempFilePaths = Files.walk(Paths.get(splitDirectory)).filter(Files::isRegularFile).collect(Collectors.toList());
+			assertTrue(tempFilePaths.size() > 1);
+			merge.mergeSortedFiles(splitDirectory, outputDirectory,removeDuplicates);
+			List<String> actualOutput = Files.lines(Paths.get(outputDirectory + "/output.dat"))
+					.collect(Collectors.toList());
+			assertEquals(expected_output, actualOutput);
+		}
+	}
+
+	@Test
+	@DisplayName("Check if blocks never grow beyond their memory limit")
+	void test_CheckIfBlocksStayWithinMemoryLimit() {
+		Random random = new Random(5);
+		for (RecordBlock block : List.of(new ByteRecordBlock(100_000), new StringRecordBlock(100_000))) {
+			byte[] line = new byte[40];
+			int added = 0;
+			while (true) {
+				int length = 1 + random.nextInt(line.length);
+				for (int i = 0; i < length; i++) {
+					line[i] = (byte) ('a' + random.nextInt(26));
+				}
+				if (!block.add(line, 0, length)) {
+					break;
+				}
+				added++;
+			}
+			assertTrue(added > 100);
+			assertTrue(block.footprint() <= 100_000);
+		}
+	}
+
+	@Test
+	@DisplayName("Check if output is sorted when the temp files are compressed")
+	void test_CheckIfCompressedTempFilesGiveSortedOutput() throws Exception {
+		FileMergeSort merge = new FileMergeSort();
+		merge.setRunCodec(new Lz4BlockCodec());
+		merge.setMemoryBudget(600);
+		merge.setMaxFanIn(2);
+		merge.generateRuns(inputFilePaths, subDirectory_Split);
+		List<Path> tempFilePaths = Files.walk(Paths.get(subDirectory_Split)).filter(Files::isRegularFile).collect(Collectors.toList());
+		assertTrue(tempFilePaths.stream().allMatch(path -> path.toString().endsWith(".lz4")));
+		merge.mergeSortedFiles(subDirectory_Split, outputDirectory,removeDuplicates);
+		List<String> actualOutput = Files.lines(Paths.get(outputDirectory + "/output.dat"))
+				.collect(Collectors.toList());
+		assertEquals(expected_output, actualOutput);
+	}
+
+	@Test
+	@DisplayName("Check if compressed temp files merged at a fan-in above the number of cores give sorted output")
+	void test_CheckIfCompressedTempFilesMergeAtHighFanIn() throws Exception {
+		int files = Runtime.getRuntime().availableProcessors() * 2 + 1;
+		List<String> lines = writeRandomInputs("compressedInput", 29, files, 100, random -> Integer.toString(random.nextInt(1000000), 36));
+		lines.sort(null);
+		FileMergeSort merge = new FileMergeSort();
+		merge.setRunCodec(new Lz4BlockCodec());
+		merge.setMaxFanIn(files);
+		merge.sortInputFiles(inputFiles("compressedInput"), subDirectory_Split);
+		assertEquals(files, Files.list(Paths.get(subDirectory_Split)).count());
+		merge.mergeSortedFiles(subDirectory_Split, outputDirectory, removeDuplicates);
+		assertMergedOutput(lines);
+		assertEquals(0, merge.getMetrics().getMergePasses());
+	}
+
+	@Test
+	@DisplayName("Check if the LZ4 codec restores compressed blocks exactly")
+	void test_CheckIfLz4CodecRoundTrips() throws Exception {
+		Lz4BlockCodec codec = new Lz4BlockCodec();
+		Random random = new Random(3);
+		for (int size : new int[] {0, 5, 13, 100, 70_000, 300_000}) {
+			byte[] block = new byte[size];
+			for (int i = 0; i < size; i++) {
+				block[i] = (byte) (i % 1000 < 500 ? 'a' + random.nextInt(4) : random.nextInt(256));
+			}
+			byte[] compressed = new byte[codec.maxCompressedLength(size)];
+			int compressedLength = codec.compress(block, 0, size, compressed, 0);
+			byte[] restored = new byte[size];
+			codec.decompress(compressed, 0, compressedLength, restored, 0, size);
+			assertTrue(Arrays.equals(block, restored));
+		}
+	}
+
+	@Test
+	@DisplayName("Check if replacement selection gives sorted output and a single temp file for sorted input")
+	void test_CheckIfReplacementSelectionOutputIsSorted() throws Exception {
+		Path sortedInput = Files.write(Paths.get(subDirectory, "sorted.txt"), expected_output);
+		for (boolean byteMode : new boolean[] {false, true}) {
+			String splitDirectory = subDirectory + "/selection" + byteMode;
+			FileMergeSort merge = new FileMergeSort();
+			merge.setByteMode(byteMode);
+			merge.setRunStrategy(RunStrategy.REPLACEMENT_SELECTION);
+			merge.setMemoryBudget(600);
+			merge.generateRuns(inputFilePaths, splitDirectory);
+			merge.mergeSortedFiles(splitDirectory, outputDirectory,removeDuplicates);
+			assertMergedOutput(expected_output);
+
+			String sortedSplitDirectory = subDirectory + "/selectionSorted" + byteMode;
+			merge.generateRuns(List.of(sortedInput), sortedSplitDirectory);
+			List<Path> tempFilePaths = Files.walk(Paths.get(sortedSplitDirectory)).filter(Files::isRegularFile).collect(Collectors.toList());
+			assertEquals(1, tempFilePaths.size());
+			assertEquals(expected_output, Files.readAllLines(tempFilePaths.get(0)));
+		}
+	}
+
+	@Test
+	@DisplayName("Check if output is sorted when the temp files are read ahead")
+	void test_CheckIfReadAheadOutputIsSorted() throws Exception {
+		FileMergeSort merge = new FileMergeSort();
+		merge.setReadAhead(true);
+		merge.setReadBufferSize(16);
+		merge.setMaxFanIn(2);
+		merge.mergeAndSortFiles(inputDirectory, outputDirectory, subDirectory, removeDuplicates);
+		assertMergedOutput(expected_output);
+		assertTrue(merge.getReadAheadStatistics().getBuffersRead() > 0);
+		assertTrue(merge.getReadAheadStatistics().getWaits() <= merge.getReadAheadStatistics().getBuffersRead());
+	}
+
+	@Test
+	@DisplayName("Check if the final merge split into key ranges gives sorted output")
+	void test_CheckIfPartitionedMergeOutputIsSorted() throws Exception {
+		for (boolean byteMode : new boolean[] {false, true}) {
+			FileMergeSort merge = new FileMergeSort();
+			merge.setByteMode(byteMode);
+			merge.setMergePartitions(4);
+			merge.setParallelism(4);
+			String tempDirectory = Files.createDirectory(Paths.get(subDirectory, "temp" + byteMode)).toString();
+			merge.mergeAndSortFiles(inputDirectory, outputDirectory, tempDirectory, removeDuplicates);
+			assertMergedOutput(expected_output);
+
+			String splitDirectory = subDirectory + "/partitions" + byteMode;
+			merge.sortInputFiles(inputFilePaths, splitDirectory);
+			merge.setPartitionedOutput(true);
+			merge.mergeSortedFiles(splitDirectory, subDirectory, true);
+			List<Path> partitionFiles = Files.list(Paths.get(subDirectory))
+					.filter(path -> path.getFileName().toString().startsWith("output-")).sorted().collect(Collectors.toList());
+			assertTrue(partitionFiles.size() > 1);
+			List<String> partitionedOutput = new ArrayList<>();
+			for (Path partitionFile : partitionFiles) {
+				partitionedOutput.addAll(Files.readAllLines(partitionFile));
+			}
+			assertEquals(expected_NoDuplicates_output, partitionedOutput);
+		}
+	}
+
+	@Test
+	@DisplayName("Check if UTF-8 lines compared as bytes follow the order of String.compareTo")
+	void test_CheckIfUtf16ByteOrderMatchesStringOrder() {
+		Random random = new Random(31);
+		String[] characters = {"a", "z", "\u00E9", "\u07FF", "\u0800", "\uD7FF", "\uE000", "\uFFFF", "\uD83D\uDE00", "\uDBFF\uDFFF"};
+		List<byte[]> lines = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			StringBuilder line = new StringBuilder();
+			for (int length = random.nextInt(4); length > 0; length--) {
+				line.append(characters[random.nextInt(characters.length)]);
+			}
+			lines.add(line.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		lines.add(new byte[] {'a', (byte) 0xe2, (byte) 0x82});
+		lines.add(new byte[] {'a', (byte) 0xe2, (byte) 0x82, (byte) 0xac});
+		lines.add(new byte[] {'a', (byte) 0xff, 'b'});
+		lines.add(new byte[] {'a', (byte) 0xed, (byte) 0xa0, (byte) 0x80});
+		for (byte[] a : lines) {
+			for (byte[] b : lines) {
+				int expected = new String(a, StandardCharsets.UTF_8).compareTo(new String(b, StandardCharsets.UTF_8));
+				assertEquals(Integer.signum(expected), Integer.signum(Utf16ByteOrder.compare(a, b)));
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("Check if duplicates are counted through temp files and merge passes")
+	void test_CheckIfDuplicatesAreCounted() throws Exception {
+		List<String> expectedCounts = new ArrayList<>();
+		for (String word : expected_NoDuplicates_output) {
+			expectedCounts.add(word + "\t" + expected_output.stream().filter(word::equals).count());
+		}
+		int test = 0;
+		for (RunStrategy runStrategy : RunStrategy.values()) {
+			for (boolean byteMode : new boolean[] {false, true}) {
+				for (int mergePartitions : new int[] {1, 3}) {
+					FileMergeSort merge = new FileMergeSort();
+					merge.setRunStrategy(runStrategy);
+					merge.setByteMode(byteMode);
+					merge.setMergePartitions(mergePartitions);
+					merge.setCountDuplicates(true);
+					merge.setMemoryBudget(600);
+					merge.setMaxFanIn(2);
+					String tempDirectory = Files.createDirectory(Paths.get(subDirectory, "count" + test++)).toString();
+					merge.generateRuns(inputFilePaths, tempDirectory + "/runs");
+					merge.mergeSortedFiles(tempDirectory + "/runs", outputDirectory, false);
+					assertMergedOutput(expectedCounts);
+
+					merge.mergeAndSortFiles(inputDirectory, outputDirectory, tempDirectory, false);
+					assertMergedOutput(expectedCounts);
+				}
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("Check if duplicates are removed while the temp files are written")
+	void test_CheckIfDuplicatesAreRemovedFromTempFiles() throws Exception {
+		for (RunStrategy runStrategy : RunStrategy.values()) {
+			FileMergeSort merge = new FileMergeSort();
+			merge.setRunStrategy(runStrategy);
+			String tempDirectory = Files.createDirectory(Paths.get(subDirectory, runStrategy.name())).toString();
+			merge.mergeAndSortFiles(inputDirectory, outputDirectory, tempDirectory, true);
+			assertMergedOutput(expected_NoDuplicates_output);
+		}
+	}
+
+	@Test
+	@DisplayName("Check if delimited lines are sorted by the keys of the sort spec")
+	void test_CheckIfSortSpecOrdersByKeys() throws Exception {
+		String[] names = {"apple", "Banana", "cherry", "Date", "elder", "FIG"};
+		List<String> lines = writeRandomInputs("csv", 11, 3, 40, random -> names[random.nextInt(names.length)] + ","
+				+ (random.nextInt(21) - 10) + "," + random.nextInt(3) + ".5" + random.nextInt(2));
+		lines.sort((a, b) -> {
+			String[] x = a.split(",");
+			String[] y = b.split(",");
+			int result = Long.compare(Long.parseLong(y[1]), Long.parseLong(x[1]));
+			if (result == 0) {
+				result = new BigDecimal(x[2]).compareTo(new BigDecimal(y[2]));
+			}
+			if (result == 0) {
+				result = x[0].toLowerCase().compareTo(y[0].toLowerCase());
+			}
+			return result == 0 ? a.compareTo(b) : result;
+		});
+		SortSpec sortSpec = new SortSpec(',', SortKey.field(1).asLong().descending(), SortKey.field(2).asDecimal(),
+				SortKey.field(0).ignoreCase());
+		int test = 0;
+		for (RunStrategy runStrategy : RunStrategy.values()) {
+			for (int mergePartitions : new int[] {1, 3}) {
+				FileMergeSort merge = new FileMergeSort();
+				merge.setSortSpec(sortSpec);
+				merge.setRunStrategy(runStrategy);
+				merge.setMergePartitions(mergePartitions);
+				merge.setMemoryBudget(2000);
+				merge.setMaxFanIn(2);
+				mergeRuns(merge, inputFiles("csv"), "spec" + test++, false);
+				assertMergedOutput(lines);
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("Check if decimal keys are compared exactly")
+	void test_CheckIfDecimalKeysCompareExactly() {
+		SortSpec sortSpec = new SortSpec(',', SortKey.line().asDecimal());
+		String[] ordered = {"abc", "-12345678901234567890.5", "-10", "-2", "-0.001", "0", "0.1", "7", "100.000000000000000001"};
+		for (int i = 0; i + 1 < ordered.length; i++) {
+			assertTrue(sortSpec.compareLines(ordered[i].getBytes(), ordered[i + 1].getBytes()) < 0);
+		}
+		assertTrue(sortSpec.compareLines("007.50".getBytes(), "7.5".getBytes()) < 0);
+		assertTrue(new SortSpec(',', SortKey.line().asDecimal().descending()).compareLines("7".getBytes(), "8".getBytes()) > 0);
+	}
+
+	@Test
+	@DisplayName("Check if lines sharing long prefixes are sorted when prefixes tie")
+	void test_CheckIfLinesWithCommonPrefixesAreSorted() throws Exception {
+		String[] stems = {"characteristically", "characteristic", "chara", "ch", "c", "café", "中文字符", "zzzzzzzzzz"};
+		List<String> lines = writeRandomInputs("prefixes", 5, 2, 300, random -> stems[random.nextInt(stems.length)]
+				+ (random.nextBoolean() ? "" : Integer.toString(random.nextInt(50))));
+		lines.sort(null);
+		for (boolean byteMode : new boolean[] {false, true}) {
+			FileMergeSort merge = new FileMergeSort();
+			merge.setByteMode(byteMode);
+			merge.setMemoryBudget(8000);
+			merge.setMaxFanIn(2);
+			mergeRuns(merge, inputFiles("prefixes"), "prefixes" + byteMode, false);
+			assertMergedOutput(lines);
+		}
+	}
+
+	@Test
+	@DisplayName("Check if records are sorted by prefix with equal prefixes, short lines and NUL bytes")
+	void test_CheckIfPrefixSorterOrdersRecords() {
+		Random random = new Random(37);
+		byte[] alphabet = {0, 1, 'a', 'b', (byte) 0xff};
+		List<byte[][]> cases = new ArrayList<>();
+		byte[][] equalPrefixes = new byte[200][];
+		byte[][] shortLines = new byte[200][];
+		byte[][] nulLines = new byte[200][];
+		for (int i = 0; i < 200; i++) {
+			equalPrefixes[i] = ("prefix00" + random.nextInt(100)).getBytes(StandardCharsets.UTF_8);
+			shortLines[i] = new byte[random.nextInt(8)];
+			nulLines[i] = new byte[random.nextInt(12)];
+			for (byte[] line : new byte[][] {shortLines[i], nulLines[i]}) {
+				for (int j = 0; j < line.length; j++) {
+					line[j] = alphabet[random.nextInt(alphabet.length)];
+				}
+			}
+		}
+		cases.add(equalPrefixes);
+		cases.add(shortLines);
+		cases.add(nulLines);
+		for (byte[][] lines : cases) {
+			long[] prefixes = new long[lines.length];
+			int[] order = new int[lines.length];
+			for (int i = 0; i < lines.length; i++) {
+				prefixes[i] = PrefixSorter.bytePrefix(lines[i], 0, lines[i].length);
+				order[i] = i;
+			}
+			PrefixSorter.sort(prefixes, order, new int[lines.length], lines.length,
+					(a, b) -> Arrays.compareUnsigned(lines[a], lines[b]));
+			byte[][] expected = lines.clone();
+			Arrays.sort(expected, Arrays::compareUnsigned);
+			for (int i = 0; i < lines.length; i++) {
+				assertTrue(Arrays.equals(expected[i], lines[order[i]]));
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("Check if a failed resumable job resumes from its manifest, and starts over when a file is corrupt")
+	void test_CheckIfResumableJobResumes() throws Exception {
+		List<String> lines = writeRandomInputs("resumeInput", 17, 5, 200, random -> Integer.toString(random.nextInt(100000), 36));
+		lines.sort(null);
+		Path inputs = Paths.get(subDirectory, "resumeInput");
+		String missingOutputDirectory = Paths.get(subDirectory, "missing").toString();
+		for (boolean corruptRun : new boolean[] {false, true}) {
+			String tempDirectory = Files.createDirectory(Paths.get(subDirectory, "resume" + corruptRun)).toString();
+			Path splitDirectory = Paths.get(tempDirectory, "split");
+			FileMergeSort merge = new FileMergeSort();
+			merge.setResumable(true);
+			merge.setMaxFanIn(2);
+			assertThrows(Exception.class, () -> merge.mergeAndSortFiles(inputs.toString(), missingOutputDirectory, tempDirectory, false));
+			Path manifest = Paths.get(tempDirectory, "job.manifest");
+			assertTrue(Files.exists(manifest));
+			Files.writeString(manifest, "commit\t0", StandardOpenOption.APPEND);
+			Files.writeString(splitDirectory.resolve("stray.dat"), "~stray\n");
+			if (corruptRun) {
+				// the largest file is written by the last merge pass, so the manifest still needs it
+				Path run = Files.list(splitDirectory).max(Comparator.comparingLong(path -> path.toFile().length())).get();
+				Files.writeString(run, "~corrupt\n", StandardOpenOption.APPEND);
+			}
+			merge.mergeAndSortFiles(inputs.toString(), outputDirectory, tempDirectory, false);
+			assertMergedOutput(lines);
+			assertEquals(corruptRun, merge.getMetrics().getRunCount() > 0);
+			assertTrue(Files.notExists(manifest));
+		}
+	}
+
+	@Test
+	@DisplayName("Check if the metrics of a job are reported to the listener, in JMX and in the JSON file")
+	void test_CheckIfJobMetricsAreReported() throws Exception {
+		writeRandomInputs("metricsInput", 23, 4, 500, random -> Integer.toString(random.nextInt(1000000), 36));
+		Path inputs = Paths.get(subDirectory, "metricsInput");
+		long inputBytes = 0L;
+		for (Path input : inputFiles("metricsInput")) {
+			inputBytes += Files.size(input);
+		}
+		List<String> events = Collections.synchronizedList(new ArrayList<>());
+		Path metricsFile = Paths.get(subDirectory, "metrics.json");
+		FileMergeSort merge = new FileMergeSort();
+		merge.setMaxFanIn(2);
+		merge.setMetricsFile(metricsFile.toString());
+		merge.setJmxName("test");
+		merge.setSortListener(new SortListener() {
+			@Override
+			public void phaseStarted(SortPhase phase, SortMetrics metrics) {
+				events.add("start " + phase);
+			}
+
+			@Override
+			public void phaseCompleted(SortPhase phase, SortMetrics metrics) {
+				events.add("end " + phase);
+			}
+
+			@Override
+			public void jobCompleted(SortMetrics metrics) {
+				events.add(metrics.getStatus());
+			}
+		});
+		merge.mergeAndSortFiles(inputs.toString(), outputDirectory, subDirectory, false);
+		assertEquals(Arrays.asList("start RUN_GENERATION", "end RUN_GENERATION", "start MERGE_PASSES", "end MERGE_PASSES",
+				"start FINAL_MERGE", "end FINAL_MERGE", "completed"), events);
+		SortMetrics metrics = merge.getMetrics();
+		assertEquals(inputBytes, metrics.getBytesRead());
+		assertEquals(2000, metrics.getRecordsRead());
+		assertEquals(4, metrics.getRunCount());
+		assertEquals(2, metrics.getFanIn());
+		assertEquals(1, metrics.getMergePasses());
+		assertEquals(2, metrics.getMergedFiles());
+		assertEquals(4000, metrics.getRecordsMerged());
+		assertEquals(inputBytes, metrics.getOutputBytes());
+		assertEquals(0, metrics.getEstimatedRemainingMillis());
+		assertEquals(2000L, ManagementFactory.getPlatformMBeanServer()
+				.getAttribute(new ObjectName("com.file.service:type=SortMetrics,name=\"test\""), "RecordsRead"));
+		merge.setJmxName(null);
+		String json = Files.readString(metricsFile);
+		assertTrue(json.contains("\"status\": \"completed\""));
+		assertTrue(json.contains("\"recordsRead\": 2000"));
+		assertTrue(json.contains("\"gcTimeMillis\": "));
+
+		merge.setMetricsFile(Paths.get(subDirectory, "missing", "metrics.json").toString());
+		events.clear();
+		assertThrows(IOException.class, () -> merge.mergeAndSortFiles(inputs.toString(), outputDirectory, subDirectory, false));
+		assertEquals("completed", events.get(events.size() - 1));
+	}
+
+	@Test
+	@DisplayName("Check if lines from an Iterator, an InputStream and a channel are sorted into a stream or a consumer")
+	void test_CheckIfStreamsAreSorted() throws Exception {
+		Random random = new Random(29);
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 3000; i++) {
+			lines.add(Integer.toString(random.nextInt(2000), 36));
+		}
+		List<String> sorted = lines.stream().sorted().collect(Collectors.toList());
+		List<String> distinct = sorted.stream().distinct().collect(Collectors.toList());
+		Path temp = Paths.get(subDirectory, "streams");
+		ExternalSorter sorter = ExternalSorter.builder().tempDirectory(temp).memoryBudget(6000).writeBufferSize(1024).parallelism(2).maxFanIn(4).build();
+		List<String> consumed = new ArrayList<>();
+		SortMetrics metrics = sorter.sort(lines.iterator(), consumed::add);
+		assertEquals(sorted, consumed);
+		assertEquals(3000, metrics.getRecordsRead());
+		assertTrue(metrics.getMergePasses() > 0);
+		byte[] input = (String.join("\r\n", lines) + "\r\n").getBytes(StandardCharsets.UTF_8);
+		for (boolean byteMode : new boolean[] {false, true}) {
+			ExternalSorter unique = ExternalSorter.builder().tempDirectory(temp).memoryBudget(6000).writeBufferSize(1024).parallelism(2).maxFanIn(4)
+					.byteMode(byteMode).removeDuplicates(true).build();
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			unique.sort(new ByteArrayInputStream(input), output);
+			assertEquals(distinct, new String(output.toByteArray(), StandardCharsets.UTF_8).lines().collect(Collectors.toList()));
+			consumed.clear();
+			unique.sort(Channels.newChannel(new ByteArrayInputStream(input)), consumed::add);
+			assertEquals(distinct, consumed);
+		}
+		consumed.clear();
+		sorter.sort(List.<String>of().iterator(), consumed::add);
+		assertTrue(consumed.isEmpty());
+		assertEquals(0L, Files.list(temp).count());
+		assertThrows(IllegalArgumentException.class, () -> ExternalSorter.builder().maxFanIn(1).build());
+		for (String line : new String[] {"z\na", "z\r\na", "z\r"}) {
+			assertThrows(IllegalArgumentException.class, () -> sorter.sort(List.of("b", line, "c").iterator(), consumed::add));
+		}
+		assertEquals(0L, Files.list(temp).count());
+	}
+
+	@Test
+	@DisplayName("Check if the command line sorts standard input and input directories, and rejects invalid flags")
+	void test_CheckIfCommandLineSorts() throws Exception {
+		ByteArrayOutputStream errors = new ByteArrayOutputStream();
+		PrintStream err = new PrintStream(errors, true, StandardCharsets.UTF_8);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] input = "b,2\na,10\nc,1\na,10\n".getBytes(StandardCharsets.UTF_8);
+		String[] streamArgs = {"--temp", subDirectory, "--delimiter", ",", "--key", "1:nr", "--unique"};
+		assertEquals(SortCommand.COMPLETED, SortCommand.run(streamArgs, new ByteArrayInputStream(input), output, err));
+		assertEquals(Arrays.asList("a,10", "b,2", "c,1"),
+				new String(output.toByteArray(), StandardCharsets.UTF_8).lines().collect(Collectors.toList()));
+		String[] directoryArgs = {"--input", inputDirectory, "--output", outputDirectory, "--temp", subDirectory, "--memory", "1k"};
+		assertEquals(SortCommand.COMPLETED, SortCommand.run(directoryArgs, InputStream.nullInputStream(), output, err));
+		assertMergedOutput(expected_output);
+		assertTrue(Files.notExists(Paths.get(subDirectory, "split")));
+		assertEquals(SortCommand.INVALID_ARGUMENTS, SortCommand.run(new String[] {"--fan-in", "1"}, InputStream.nullInputStream(), output, err));
+		assertEquals(SortCommand.INVALID_ARGUMENTS, SortCommand.run(new String[] {"--input", inputDirectory}, InputStream.nullInputStream(), output, err));
+		assertEquals(SortCommand.INVALID_ARGUMENTS, SortCommand.run(new String[] {"--key", "0:x"}, InputStream.nullInputStream(), output, err));
+		for (String flag : new String[] {"--partitions=2", "--resumable", "--presorted"}) {
+			List<String> args = new ArrayList<>(List.of("--temp", subDirectory));
+			args.addAll(Arrays.asList(flag.split("=")));
+			assertEquals(SortCommand.INVALID_ARGUMENTS, SortCommand.run(args.toArray(String[]::new), InputStream.nullInputStream(), output, err));
+		}
+		assertEquals(SortCommand.FAILED, SortCommand.run(new String[] {"--input", "src/test/resources/inputDirectory", "--output",
+				outputDirectory, "--temp", subDirectory}, InputStream.nullInputStream(), output, err));
+		assertEquals(2L * 1024 * 1024 * 1024, SortCommand.size("2G"));
+	}
+
 	@AfterEach
 	void deleteOutPutFile() throws IOException {
 		Files.deleteIfExists(Paths.get("src/test/resources/output.dat"));